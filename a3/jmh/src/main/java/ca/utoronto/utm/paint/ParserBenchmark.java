@@ -0,0 +1,113 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parses generated Paint Save Files of 1K to 10M lines, as PaintModel.save
+ * writes them and with all the whitespace the format allows: sequentially
+ * with each engine, and in parallel with the SCANNER engine, the only one
+ * with a parallel path. parseCorrupted parses a file corrupted near its end,
+ * to measure the error path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public long lines;
+
+    @Param({"CANONICAL", "MIXED"})
+    public PaintFileGenerator.Whitespace whitespace;
+
+    private Path file;
+    private Path corruptedFile;
+    private String expectedError;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        PaintFileGenerator generator = PaintFileGenerator.ofLines(this.lines, 42);
+        generator.setWhitespace(this.whitespace);
+        this.file = Files.createTempFile("paint-benchmark", ".txt");
+        generator.write(this.file);
+
+        generator.setFailure(PaintFileGenerator.Failure.END_OF_FILE);
+        this.corruptedFile = Files.createTempFile("paint-benchmark", ".txt");
+        generator.write(this.corruptedFile);
+        this.expectedError = generator.getExpectedErrorMessage();
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(this.corruptedFile);
+    }
+
+    /**
+     * The engine to parse with sequentially
+     */
+    @State(Scope.Benchmark)
+    public static class Sequential {
+        @Param({"SCANNER", "REGEX"})
+        public PaintFileParser.Engine engine;
+    }
+
+    /**
+     * The parallelism to parse with, with the SCANNER engine
+     */
+    @State(Scope.Benchmark)
+    public static class Parallel {
+        @Param({"4"})
+        public int parallelism;
+    }
+
+    private static PaintFileParser parser(PaintFileParser.Engine engine, int parallelism) {
+        PaintFileParser parser = new PaintFileParser();
+        parser.setEngine(engine);
+        parser.setParallelism(parallelism);
+        return parser;
+    }
+
+    @Benchmark
+    public PaintModel parse(Sequential state) {
+        return this.parse(parser(state.engine, 1));
+    }
+
+    @Benchmark
+    public PaintModel parseParallel(Parallel state) {
+        return this.parse(parser(PaintFileParser.Engine.SCANNER, state.parallelism));
+    }
+
+    @Benchmark
+    public String parseCorrupted(Sequential state) {
+        return this.parseCorrupted(parser(state.engine, 1));
+    }
+
+    @Benchmark
+    public String parseCorruptedParallel(Parallel state) {
+        return this.parseCorrupted(parser(PaintFileParser.Engine.SCANNER, state.parallelism));
+    }
+
+    private PaintModel parse(PaintFileParser parser) {
+        PaintModel model = new PaintModel();
+        if (!parser.parse(this.file.toFile(), model)) {
+            throw new IllegalStateException(parser.getErrorMessage());
+        }
+        return model;
+    }
+
+    private String parseCorrupted(PaintFileParser parser) {
+        if (parser.parse(this.corruptedFile.toFile(), new PaintModel())
+                || !parser.getErrorMessage().equals(this.expectedError)) {
+            throw new IllegalStateException("Expected " + this.expectedError + ", not " + parser.getErrorMessage());
+        }
+        return parser.getErrorMessage();
+    }
+}
@@ -0,0 +1,65 @@
+package ca.utoronto.utm.paint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Cleans up responses of the model, as OllamaPaint does: a generated Paint
+ * Save File wrapped in the chatter and triple graves models add, with some
+ * coordinates given as arithmetic and some lines ending in comments. The
+ * regex passes postProcess made before are the baseline; streamed gives
+ * the response to a PaintResponseNormalizer in tokens of a few characters,
+ * as Ollama does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PostProcessBenchmark {
+    @Param({"100", "10000"})
+    public long lines;
+
+    private String response;
+    private String[] tokens;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        PaintFileGenerator.ofLines(this.lines, 42).write(file);
+        String text = file.toString(StandardCharsets.US_ASCII)
+                .replace("center:(1", "center:(10+")
+                .replace("radius:2", "radius:25-3")
+                .replace("End Rectangle\n", "End Rectangle // the frame\n");
+        this.response = "Sure! Here is the drawing you asked for.\n```\n" + text
+                + "```\nLet me know if you would like any changes.";
+        this.tokens = new String[(this.response.length() + 3) / 4];
+        for (int i = 0; i < this.tokens.length; i++) {
+            this.tokens[i] = this.response.substring(4 * i, Math.min(this.response.length(), 4 * i + 4));
+        }
+    }
+
+    @Benchmark
+    public String postProcess() {
+        return OllamaPaint.postProcess(this.response);
+    }
+
+    @Benchmark
+    public String postProcessByRegex() {
+        return OllamaPaint.postProcessByRegex(this.response);
+    }
+
+    @Benchmark
+    public String streamed() {
+        PaintResponseNormalizer normalizer = new PaintResponseNormalizer();
+        for (String token : this.tokens) {
+            normalizer.token(token);
+        }
+        return normalizer.finish();
+    }
+}
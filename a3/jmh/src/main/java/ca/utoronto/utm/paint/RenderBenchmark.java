@@ -0,0 +1,90 @@
+package ca.utoronto.utm.paint;
+
+import java.util.concurrent.TimeUnit;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Draws commands on an offscreen canvas. A GraphicsContext only records
+ * what it is asked to draw, to be rasterized later on the render thread,
+ * so this measures the time the JavaFX Application Thread spends drawing,
+ * which is what holds up the response to the mouse. The canvas is cleared
+ * each invocation so the recorded operations do not pile up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"1000", "100000"})
+    public int points;
+
+    @Param({"1000"})
+    public int shapes;
+
+    private GraphicsContext g;
+    private SquiggleCommand squiggle;
+    private PaintModel model;
+    private Rectangle2D viewport = new Rectangle2D(0, 0, PaintFileGenerator.SIZE / 4, PaintFileGenerator.SIZE / 4);
+
+    @Setup(Level.Trial)
+    public void generate() {
+        this.g = new Canvas(PaintFileGenerator.SIZE, PaintFileGenerator.SIZE).getGraphicsContext2D();
+
+        PaintFileGenerator generator = new PaintFileGenerator(42);
+        generator.setSquiggles(1);
+        generator.setPoints(this.points);
+        this.squiggle = (SquiggleCommand) generator.generateCommands().get(0);
+
+        // A drawing of shapes shapes, each squiggle and polyline of 100 points
+        generator = new PaintFileGenerator(42);
+        generator.setCircles(this.shapes / 4);
+        generator.setRectangles(this.shapes / 4);
+        generator.setSquiggles(this.shapes / 4);
+        generator.setPolylines(this.shapes / 4);
+        generator.setPoints(100);
+        this.model = generator.generateModel();
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() {
+        this.g.clearRect(0, 0, PaintFileGenerator.SIZE, PaintFileGenerator.SIZE);
+    }
+
+    @Benchmark
+    public void squiggleExecute() {
+        this.squiggle.execute(this.g);
+    }
+
+    /**
+     * The way squiggles were drawn before strokePolyline, one strokeLine per
+     * segment, as a baseline.
+     */
+    @Benchmark
+    public void squiggleExecuteStrokeLine() {
+        PointList points = this.squiggle.getPoints();
+        this.g.setStroke(this.squiggle.getColor());
+        for (int i = 0; i < points.size() - 1; i++) {
+            this.g.strokeLine(points.getX(i), points.getY(i), points.getX(i + 1), points.getY(i + 1));
+        }
+    }
+
+    @Benchmark
+    public void executeAll() {
+        this.model.executeAll(this.g);
+    }
+
+    /**
+     * Drawing a sixteenth of the drawing, as a zoomed view does
+     */
+    @Benchmark
+    public void executeAllViewport() {
+        this.model.executeAll(this.g, this.viewport);
+    }
+}
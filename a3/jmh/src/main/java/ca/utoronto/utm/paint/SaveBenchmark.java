@@ -0,0 +1,84 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Writes commands of each type in the text format, one at a time through
+ * getPaintSaveFileString, and a whole drawing through PaintModel.save: to
+ * nowhere, to a file as a plain FileOutputStream would, and to a file
+ * through an AtomicFile, which adds a temporary file, a force and a move.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SaveBenchmark {
+    @Param({"CIRCLE", "RECTANGLE", "SQUIGGLE", "POLYLINE"})
+    public String type;
+
+    @Param({"1000"})
+    public int shapes;
+
+    @Param({"100"})
+    public int points;
+
+    private List<PaintCommand> commands;
+    private PaintModel model;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        PaintFileGenerator generator = new PaintFileGenerator(42);
+        switch (this.type) {
+            case "CIRCLE" -> generator.setCircles(this.shapes);
+            case "RECTANGLE" -> generator.setRectangles(this.shapes);
+            case "SQUIGGLE" -> generator.setSquiggles(this.shapes);
+            default -> generator.setPolylines(this.shapes);
+        }
+        generator.setPoints(this.points);
+        this.commands = generator.generateCommands();
+        this.model = generator.generateModel();
+        this.file = Files.createTempFile("paint-benchmark", ".txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    @Benchmark
+    public long getPaintSaveFileString() {
+        long length = 0;
+        for (PaintCommand command : this.commands) {
+            length += command.getPaintSaveFileString().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        this.model.save(new PaintSaveFileWriter(OutputStream.nullOutputStream()));
+    }
+
+    @Benchmark
+    public void saveToFile() throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(this.file))) {
+            this.model.save(new PaintSaveFileWriter(out));
+        }
+    }
+
+    @Benchmark
+    public void saveToFileAtomically() throws IOException {
+        AtomicFile.write(this.file, out -> this.model.save(new PaintSaveFileWriter(out)));
+    }
+}
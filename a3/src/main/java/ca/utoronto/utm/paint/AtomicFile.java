@@ -0,0 +1,89 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * Replaces the contents of a file so that, whatever happens part way, the
+ * file holds either all of its old contents or all of its new ones. The new
+ * contents are written to a temporary file in the same directory, forced to
+ * the disk, then moved over the file in one step. A save interrupted by a
+ * crash, a full disk or an exception leaves the original file untouched,
+ * and no temporary file behind.
+ */
+public final class AtomicFile {
+    /**
+     * Writes the new contents of a file.
+     */
+    public interface Content {
+        public void writeTo(OutputStream out) throws IOException;
+    }
+
+    private AtomicFile() {
+    }
+
+    /**
+     * Replace the contents of target with those written by content. The
+     * OutputStream passed to content is not buffered, so content should
+     * buffer its writes, as PaintSaveFileWriter does.
+     *
+     * @param target
+     * @param content
+     * @throws IOException if the contents could not all be written, in which case target is unchanged
+     */
+    public static void write(Path target, Content content) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, "." + target.getFileName() + ".", ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                content.writeTo(out);
+                out.flush();
+                channel.force(true); // on the disk before it replaces target
+            }
+            copyPermissions(target, temporary);
+            try {
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            moved = true;
+            forceDirectory(directory);
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * Give the temporary file the permissions of the file it replaces,
+     * rather than the owner only permissions of a new temporary file.
+     */
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (view != null && Files.exists(from)) {
+            Files.setPosixFilePermissions(to, view.readAttributes().permissions());
+        }
+    }
+
+    /**
+     * Make the move itself durable, where the platform allows a directory to be forced.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform, such as Windows; the move has still happened
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javafx.application.Platform;
+
+/**
+ * Autosaves a PaintModel to a journal file, so a drawing survives a crash.
+ *
+ * The journal is a list of records, each about one command, identified by
+ * its order in the model (see PaintModel.getOrder):
+ *
+ * <pre>
+ * + order length
+ * the block of the command in the Paint Save File format, length bytes long
+ * - order
+ * </pre>
+ *
+ * A "+" record holds the whole of the command as it now is, replacing any
+ * earlier record about it; a "-" record means the command was removed. The
+ * journal is only appended to, and only with the commands that changed, so
+ * drawing one more shape writes one more block however large the drawing.
+ * As the records about commands that changed again pile up, the writer
+ * thread compacts the journal: replaces it, through an AtomicFile, by the
+ * last "+" record of each command, read back from the journal itself.
+ * A crash part way through an append leaves an incomplete last record, which
+ * recover ignores.
+ *
+ * Changes are not written as they happen. The first change after a write
+ * schedules the next, FLUSH_DELAY_MILLIS later, so a shape dragged out over
+ * a hundred mouse events is written once. On the model thread, the JavaFX
+ * Application Thread, the changed commands are only copied, so the copies
+ * cannot change while a thread of its own writes them as blocks to the file.
+ *
+ * Only one program should journal to a file at once. tryLock takes a lock
+ * file beside it for as long as the journal is open, so a second Paint can
+ * tell the journal is not left over from a crash, but in use.
+ */
+public class AutosaveJournal {
+    /**
+     * How long after a change the journal is written
+     */
+    public static final long FLUSH_DELAY_MILLIS = 2000;
+
+    /**
+     * The journal is compacted once the bytes appended since it was last
+     * compacted are more than both this and the size it was compacted to.
+     */
+    static final long COMPACT_THRESHOLD = 1 << 20;
+
+    private final Path file;
+    private final Executor modelThread; // where the model is read
+    private final ScheduledThreadPoolExecutor writer; // where the file is written, in the order the writes are queued
+    private FileChannel channel; // appends to the journal, opened on the writer thread
+    private FileLock lock; // of the lock file, if taken
+
+    private PaintModel model;
+    private PaintModelChanges changes;
+    private PaintModelListener listener = model -> this.scheduleFlush();
+    private boolean flushScheduled = false;
+    // The order of each command with a "+" record in the journal, to write its "-" record
+    private Map<PaintCommand, Long> journaled = new IdentityHashMap<PaintCommand, Long>();
+    private long appended = 0; // bytes appended since the journal was compacted, on the writer thread
+    private long compactedSize = 0; // bytes the journal was last compacted to, on the writer thread
+    private volatile boolean compactionFailed = false; // the journal may not hold every command, so compact again
+
+    /**
+     * A journal at file, of a model read on the JavaFX Application Thread
+     *
+     * @param file
+     */
+    public AutosaveJournal(Path file) {
+        this(file, Platform::runLater);
+    }
+
+    /**
+     * @param file
+     * @param modelThread runs each task on the thread the model is changed on
+     */
+    AutosaveJournal(Path file, Executor modelThread) {
+        this.file = file;
+        this.modelThread = modelThread;
+        ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Paint autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false); // close flushes
+        this.writer = writer;
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Take the lock file of the journal, file with ".lock" appended, until
+     * close. Call before recovering or attaching.
+     *
+     * @return whether the lock was taken; if not, another program is journaling
+     * to the file, which must then be neither recovered nor attached
+     * @throws IOException if the lock file could not be opened
+     */
+    public boolean tryLock() throws IOException {
+        if (this.lock != null) return true;
+        Path lockFile = this.file.resolveSibling(this.file.getFileName() + ".lock");
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            this.lock = null; // held by another journal in this program
+        }
+        if (this.lock == null) channel.close();
+        return this.lock != null;
+    }
+
+    /**
+     * Journal model from now on, in place of any model journaled before.
+     * The journal is compacted to hold just the commands of model.
+     * Call on the model thread.
+     *
+     * @param model
+     */
+    public void attach(PaintModel model) {
+        this.detach();
+        this.model = model;
+        this.changes = model.trackChanges();
+        this.changes.addListener(this.listener);
+        this.compact();
+    }
+
+    private void detach() {
+        if (this.model == null) return;
+        this.changes.removeListener(this.listener);
+        this.model.stopTrackingChanges(this.changes);
+        this.model = null;
+        this.changes = null;
+    }
+
+    private void scheduleFlush() {
+        if (this.flushScheduled) return;
+        this.flushScheduled = true;
+        this.writer.schedule(() -> this.modelThread.execute(this::flush), FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the changes to the model since the last flush to be written to
+     * the journal, compacting it if need be. Call on the model thread.
+     */
+    public void flush() {
+        this.flushScheduled = false;
+        if (this.model == null) return;
+        Collection<PaintCommand> changed = this.changes.takeChanges();
+        if (changed == null || this.compactionFailed) {
+            this.compact();
+            return;
+        }
+        if (changed.isEmpty()) return;
+
+        List<Record> records = new ArrayList<Record>(changed.size());
+        for (PaintCommand command : changed) {
+            if (this.model.contains(command)) {
+                long order = this.model.getOrder(command);
+                this.journaled.put(command, order);
+                records.add(new Record(order, command.copy()));
+            } else {
+                Long order = this.journaled.remove(command);
+                if (order != null) {
+                    records.add(new Record(order, null));
+                }
+            }
+        }
+        this.writer.execute(() -> this.append(write(records)));
+    }
+
+    /**
+     * Queue the journal to be replaced by a "+" record for each command of
+     * the model, as when the journal may not hold them all. The commands are copied now, on the model thread, so the
+     * writer thread never reads a command that may be changing.
+     */
+    private void compact() {
+        this.changes.takeChanges(); // all written by the compaction
+        this.journaled.clear();
+        List<Record> records = new ArrayList<Record>(this.model.getCommands().size());
+        for (PaintCommand command : this.model.getCommands()) {
+            long order = this.model.getOrder(command);
+            this.journaled.put(command, order);
+            records.add(new Record(order, command.copy()));
+        }
+        this.writer.execute(() -> this.rewrite(write(records)));
+    }
+
+    /**
+     * A record to write: "+" with a copy of the command, or "-" if command is null
+     */
+    private static class Record {
+        private final long order;
+        private final PaintCommand command;
+
+        Record(long order, PaintCommand command) {
+            this.order = order;
+            this.command = command;
+        }
+    }
+
+    /**
+     * @param records
+     * @return records in the journal format
+     */
+    private static byte[] write(List<Record> records) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PaintSaveFileWriter out = new PaintSaveFileWriter(bytes);
+        // Each block is written here first, as its length goes before it
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        PaintSaveFileWriter blockOut = new PaintSaveFileWriter(block);
+        try {
+            for (Record record : records) {
+                if (record.command == null) {
+                    out.write("- ").write(Long.toString(record.order)).write('\n');
+                    continue;
+                }
+                block.reset();
+                record.command.writePaintSaveFile(blockOut);
+                blockOut.flush();
+                out.write("+ ").write(Long.toString(record.order)).write(' ').writeInt(block.size()).write('\n');
+                out.flush(); // so the block follows the header
+                block.writeTo(bytes);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e); // not thrown by a ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    private void rewrite(byte[] bytes) {
+        try {
+            this.closeChannel(); // it appends to the file being replaced
+            AtomicFile.write(this.file, fileOut -> fileOut.write(bytes));
+            this.appended = 0;
+            this.compactedSize = bytes.length;
+            this.compactionFailed = false;
+        } catch (IOException e) {
+            // The journal is as it was before, without the commands since; the next flush tries again
+            Trace.error("Autosave failed: " + e.getMessage());
+            this.compactionFailed = true;
+        }
+    }
+
+    private void append(byte[] bytes) {
+        try {
+            if (this.channel == null) {
+                this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.channel.force(false);
+        } catch (IOException e) {
+            Trace.error("Autosave failed: " + e.getMessage());
+            this.closeChannel();
+            return;
+        }
+        this.appended += bytes.length;
+        if (this.appended > Math.max(COMPACT_THRESHOLD, this.compactedSize)) {
+            this.compactFile();
+        }
+    }
+
+    /**
+     * Replace the journal by the last "+" record of each command in it.
+     * If this fails, the journal is as it was, and the next append tries again.
+     */
+    private void compactFile() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            PaintSaveFileWriter out = new PaintSaveFileWriter(bytes);
+            for (Map.Entry<Long, String> block : readBlocks(Files.readAllBytes(this.file)).entrySet()) {
+                out.write("+ ").write(Long.toString(block.getKey())).write(' ').writeInt(block.getValue().length())
+                        .write('\n').write(block.getValue());
+            }
+            out.flush();
+            this.closeChannel(); // it appends to the file being replaced
+            AtomicFile.write(this.file, fileOut -> bytes.writeTo(fileOut));
+        } catch (IOException e) {
+            Trace.error("Autosave failed to compact: " + e.getMessage());
+            return;
+        }
+        this.appended = 0;
+        this.compactedSize = bytes.size();
+    }
+
+    private void closeChannel() {
+        if (this.channel == null) return;
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // Everything written has already been forced
+        }
+        this.channel = null;
+    }
+
+    private void unlock() {
+        if (this.lock == null) return;
+        try {
+            this.lock.channel().close(); // releases the lock
+        } catch (IOException e) {
+            Trace.error("Failed to unlock " + this.file + ": " + e.getMessage());
+        }
+        this.lock = null;
+    }
+
+    /**
+     * Wait for the writes queued so far to finish.
+     *
+     * @throws InterruptedException
+     */
+    void awaitWrites() throws InterruptedException {
+        try {
+            this.writer.submit(() -> null).get();
+        } catch (ExecutionException e) {
+            throw new AssertionError(e); // the task does nothing
+        }
+    }
+
+    /**
+     * Write the changes not yet written and stop journaling, waiting for the
+     * writes to finish. Call on the model thread.
+     *
+     * @param delete whether to delete the journal, as when the program exits normally
+     */
+    public void close(boolean delete) {
+        if (!delete) {
+            this.flush();
+        }
+        this.detach();
+        this.writer.execute(() -> {
+            this.closeChannel();
+            if (delete) {
+                try {
+                    Files.deleteIfExists(this.file);
+                } catch (IOException e) {
+                    Trace.error("Failed to delete " + this.file + ": " + e.getMessage());
+                }
+            }
+            this.unlock();
+        });
+        this.writer.shutdown();
+        try {
+            this.writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Read the drawing journaled at file, ignoring an incomplete last record.
+     *
+     * @param file
+     * @return the drawing, or null if there is no journal, or it holds no commands
+     * @throws IOException if the journal could not be read, or holds a block that is not valid
+     */
+    public static PaintModel recover(Path file) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        TreeMap<Long, String> blocks = readBlocks(bytes);
+        if (blocks.isEmpty()) return null;
+
+        StringBuilder text = new StringBuilder("Paint Save File Version 1.0\n");
+        for (String block : blocks.values()) {
+            text.append(block);
+        }
+        text.append("End Paint Save File\n");
+        PaintModel model = new PaintModel();
+        PaintFileParser parser = new PaintFileParser();
+        if (!parser.parse(new BufferedReader(new StringReader(text.toString())), model)) {
+            throw new IOException(parser.getErrorMessage());
+        }
+        return model;
+    }
+
+    /**
+     * @param bytes a journal
+     * @return the block of the last "+" record of each command not since
+     * removed, by order, the order they are executed, ignoring an incomplete
+     * last record
+     * @throws IOException if a record is not valid
+     */
+    private static TreeMap<Long, String> readBlocks(byte[] bytes) throws IOException {
+        TreeMap<Long, String> blocks = new TreeMap<Long, String>(); // by order, the order they are executed
+        int i = 0;
+        while (i < bytes.length) {
+            int end = indexOf(bytes, '\n', i);
+            if (end < 0) break; // incomplete
+            String[] header = new String(bytes, i, end - i, StandardCharsets.US_ASCII).split(" ");
+            i = end + 1;
+            try {
+                if (header.length == 3 && header[0].equals("+")) {
+                    int length = Integer.parseInt(header[2]);
+                    if (length < 0 || length > bytes.length - i) break; // incomplete
+                    blocks.put(Long.parseLong(header[1]), new String(bytes, i, length, StandardCharsets.US_ASCII));
+                    i += length;
+                } else if (header.length == 2 && header[0].equals("-")) {
+                    blocks.remove(Long.parseLong(header[1]));
+                } else {
+                    throw new IOException("Invalid autosave record at byte " + i);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid autosave record at byte " + i);
+            }
+        }
+        return blocks;
+    }
+
+    private static int indexOf(byte[] bytes, char c, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == c) return i;
+        }
+        return -1;
+    }
+}
@@ -1,5 +1,8 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 
 public class CircleCommand extends PaintCommand {
@@ -16,9 +19,9 @@ public class CircleCommand extends PaintCommand {
     }
 
     public void setCentre(Point centre) {
+        this.changing();
         this.centre = centre;
-        this.setChanged();
-        this.notifyObservers();
+        this.changed();
     }
 
     public int getRadius() {
@@ -26,15 +29,54 @@ public class CircleCommand extends PaintCommand {
     }
 
     public void setRadius(int radius) {
+        this.changing();
         this.radius = radius;
-        this.setChanged();
-        this.notifyObservers();
+        this.changed();
+    }
+
+    @Override
+    UndoHistory.Change startChange() {
+        return new CircleChange();
+    }
+
+    private class CircleChange extends StyleChange {
+        private final Point oldCentre = centre;
+        private final int oldRadius = radius;
+        private Point newCentre;
+        private int newRadius;
+
+        @Override
+        public boolean finish() {
+            boolean styleChanged = super.finish();
+            this.newCentre = centre;
+            this.newRadius = radius;
+            return styleChanged || this.newCentre != this.oldCentre || this.newRadius != this.oldRadius;
+        }
+
+        @Override
+        public void undo() {
+            super.undo();
+            setCentre(this.oldCentre);
+            setRadius(this.oldRadius);
+        }
+
+        @Override
+        public void redo() {
+            super.redo();
+            setCentre(this.newCentre);
+            setRadius(this.newRadius);
+        }
+    }
+
+    @Override
+    CircleCommand copy() {
+        return this.copyStyleTo(new CircleCommand(this.centre, this.radius));
     }
 
     public void execute(GraphicsContext g) {
-        int x = this.getCentre().x;
-        int y = this.getCentre().y;
-        int radius = this.getRadius();
+        double x = this.getCentre().x;
+        double y = this.getCentre().y;
+        double radius = this.getRadius();
         if (this.isFill()) {
             g.setFill(this.getColor());
             g.fillOval(x - radius, y - radius, 2 * radius, 2 * radius);
@@ -45,21 +87,19 @@ public class CircleCommand extends PaintCommand {
     }
 
     @Override
-    public String getPaintSaveFileString() {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("Circle\n");
-
-        // Reuse common instructions:
-        String details = super.getPaintSaveFileString();
-        int startIndex = details.indexOf("color:");
-        details = details.substring(startIndex);
-        sb.append(details);
-
-        sb.append("\tcenter:(").append(getCentre().x).append(",").append(getCentre().y).append(")\n");
-        sb.append("\tradius:").append(radius).append("\n");
-        sb.append("EndCircle\n");
+    public Rectangle2D getBounds() {
+        if (this.centre == null) return null;
+        // In double, as twice a radius of over a billion overflows an int
+        double radius = this.radius;
+        return new Rectangle2D(this.centre.x - radius, this.centre.y - radius, 2 * radius, 2 * radius);
+    }
 
-        return sb.toString();
+    @Override
+    public void writePaintSaveFile(PaintSaveFileWriter writer) throws IOException {
+        writer.write("Circle\n");
+        this.writeStyle(writer);
+        writer.write("\tcenter:").writePoint(getCentre().x, getCentre().y).write('\n');
+        writer.write("\tradius:").writeInt(radius).write('\n');
+        writer.write("EndCircle\n");
     }
 }
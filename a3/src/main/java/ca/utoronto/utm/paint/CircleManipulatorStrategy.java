@@ -24,4 +24,9 @@ class CircleManipulatorStrategy extends ShapeManipulatorStrategy {
         this.circleCommand = new CircleCommand(centre, 0);
         this.addCommand(circleCommand);
     }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        this.setActiveCommand(null); // finished with this shape
+    }
 }
@@ -0,0 +1,214 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.geometry.Rectangle2D;
+
+/**
+ * A spatial index over the commands of a PaintModel. The plane is divided
+ * into square cells, and each command is listed in every cell its bounds
+ * touch, so finding the commands near a point or rectangle only looks at the
+ * commands in the cells it covers. A command covering more than MAX_CELLS
+ * cells is kept in a separate list of large commands, which every query
+ * checks, rather than in thousands of cells.
+ *
+ * Each command is indexed with its order, increasing with its position in
+ * the model, so query results can be returned in the order the commands are
+ * executed. A command removed and later put back keeps its order.
+ */
+final class CommandGrid {
+    static final int CELL_SIZE = 64;
+    static final int MAX_CELLS = 256;
+
+    /**
+     * Where a command is indexed.
+     */
+    private static final class Entry {
+        final PaintCommand command;
+        final long order;
+        Rectangle2D bounds; // null if the command draws nothing
+        boolean large; // in largeEntries rather than in cells
+        int minColumn, minRow, maxColumn, maxRow; // the cells it is in, if any
+
+        Entry(PaintCommand command, long order) {
+            this.command = command;
+            this.order = order;
+        }
+    }
+
+    private static final Comparator<Entry> EXECUTION_ORDER = Comparator.comparingLong(e -> e.order);
+
+    private Map<PaintCommand, Entry> entries = new IdentityHashMap<PaintCommand, Entry>();
+    private Map<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+    private ArrayList<Entry> largeEntries = new ArrayList<Entry>();
+    private long nextOrder = 0;
+
+    private static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    boolean contains(PaintCommand command) {
+        return this.entries.containsKey(command);
+    }
+
+    /**
+     * @param command
+     * @return the order command is indexed with, or -1 if it is not indexed
+     */
+    long orderOf(PaintCommand command) {
+        Entry entry = this.entries.get(command);
+        return entry == null ? -1 : entry.order;
+    }
+
+    /**
+     * @return an order after that of every command indexed so far
+     */
+    long nextOrder() {
+        return this.nextOrder++;
+    }
+
+    /**
+     * Index command, to be executed after the commands of smaller order.
+     *
+     * @param command
+     * @param order
+     */
+    void add(PaintCommand command, long order) {
+        if (this.contains(command)) return;
+        Entry entry = new Entry(command, order);
+        this.place(entry); // first, so if the bounds of command throw, this is left as it was
+        this.entries.put(command, entry);
+    }
+
+    /**
+     * @param command
+     * @return the order command was indexed with, or -1 if it was not
+     */
+    long remove(PaintCommand command) {
+        Entry entry = this.entries.remove(command);
+        if (entry == null) return -1;
+        this.unplace(entry);
+        return entry.order;
+    }
+
+    /**
+     * Move command to the cells its bounds now touch.
+     *
+     * @param command
+     */
+    void update(PaintCommand command) {
+        Entry entry = this.entries.get(command);
+        if (entry == null) return;
+        Rectangle2D bounds = command.getBounds();
+        if (bounds != null && entry.bounds != null && !entry.large
+                && cell(bounds.getMinX()) == entry.minColumn && cell(bounds.getMinY()) == entry.minRow
+                && cell(bounds.getMaxX()) == entry.maxColumn && cell(bounds.getMaxY()) == entry.maxRow) {
+            entry.bounds = bounds; // still in the same cells, the usual case as a shape grows
+            return;
+        }
+        this.unplace(entry);
+        this.place(entry);
+    }
+
+    void clear() {
+        this.entries.clear();
+        this.cells.clear();
+        this.largeEntries.clear();
+    }
+
+    private void place(Entry entry) {
+        entry.bounds = entry.command.getBounds();
+        if (entry.bounds == null) return;
+        entry.minColumn = cell(entry.bounds.getMinX());
+        entry.minRow = cell(entry.bounds.getMinY());
+        entry.maxColumn = cell(entry.bounds.getMaxX());
+        entry.maxRow = cell(entry.bounds.getMaxY());
+        long count = ((long) entry.maxColumn - entry.minColumn + 1) * ((long) entry.maxRow - entry.minRow + 1);
+        entry.large = count > MAX_CELLS;
+        if (entry.large) {
+            this.largeEntries.add(entry);
+            return;
+        }
+        for (int column = entry.minColumn; column <= entry.maxColumn; column++) {
+            for (int row = entry.minRow; row <= entry.maxRow; row++) {
+                this.cells.computeIfAbsent(key(column, row), k -> new ArrayList<Entry>()).add(entry);
+            }
+        }
+    }
+
+    private void unplace(Entry entry) {
+        if (entry.bounds == null) return;
+        if (entry.large) {
+            this.largeEntries.remove(entry);
+        } else {
+            for (int column = entry.minColumn; column <= entry.maxColumn; column++) {
+                for (int row = entry.minRow; row <= entry.maxRow; row++) {
+                    long key = key(column, row);
+                    ArrayList<Entry> cell = this.cells.get(key);
+                    cell.remove(entry);
+                    if (cell.isEmpty()) {
+                        this.cells.remove(key);
+                    }
+                }
+            }
+        }
+        entry.bounds = null;
+    }
+
+    /**
+     * @param minX
+     * @param minY
+     * @param maxX
+     * @param maxY
+     * @return the commands whose bounds intersect, or touch, the rectangle
+     * from (minX, minY) to (maxX, maxY), in order
+     */
+    List<PaintCommand> query(double minX, double minY, double maxX, double maxY) {
+        ArrayList<Entry> found = new ArrayList<Entry>();
+        int minColumn = cell(minX), minRow = cell(minY), maxColumn = cell(maxX), maxRow = cell(maxY);
+        long count = ((long) maxColumn - minColumn + 1) * ((long) maxRow - minRow + 1);
+        if (count > this.cells.size()) {
+            // Covers more cells than are in use, so look at every command
+            for (Entry entry : this.entries.values()) {
+                if (!entry.large && intersects(entry.bounds, minX, minY, maxX, maxY)) found.add(entry);
+            }
+        } else {
+            // A command in several of the cells is found once, in the first it is in
+            for (int column = minColumn; column <= maxColumn; column++) {
+                for (int row = minRow; row <= maxRow; row++) {
+                    ArrayList<Entry> cell = this.cells.get(key(column, row));
+                    if (cell == null) continue;
+                    for (Entry entry : cell) {
+                        if (Math.max(entry.minColumn, minColumn) == column && Math.max(entry.minRow, minRow) == row
+                                && intersects(entry.bounds, minX, minY, maxX, maxY)) {
+                            found.add(entry);
+                        }
+                    }
+                }
+            }
+        }
+        for (Entry entry : this.largeEntries) {
+            if (intersects(entry.bounds, minX, minY, maxX, maxY)) found.add(entry);
+        }
+        found.sort(EXECUTION_ORDER);
+        ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>(found.size());
+        for (Entry entry : found) {
+            commands.add(entry.command);
+        }
+        return commands;
+    }
+
+    private static boolean intersects(Rectangle2D bounds, double minX, double minY, double maxX, double maxY) {
+        return bounds != null && bounds.getMinX() <= maxX && minX <= bounds.getMaxX()
+                && bounds.getMinY() <= maxY && minY <= bounds.getMaxY();
+    }
+}
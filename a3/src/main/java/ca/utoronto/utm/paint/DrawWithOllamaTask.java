@@ -0,0 +1,33 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+
+import javafx.concurrent.Task;
+
+/**
+ * Draws what Ollama generates in response to a prompt in the background,
+ * with an OllamaPaintStream, so each shape appears as soon as it has been
+ * generated. The value is the number of shapes drawn. The task fails if
+ * Ollama could not be called, or the response is not a valid Paint Save
+ * File, keeping the shapes drawn before. Cancelling it stops the drawing.
+ */
+class DrawWithOllamaTask extends Task<Integer> {
+    private final OllamaPaintStream stream;
+    private final String prompt;
+
+    DrawWithOllamaTask(OllamaPaintStream stream, String prompt) {
+        this.stream = stream;
+        this.prompt = prompt;
+    }
+
+    @Override
+    protected Integer call() throws IOException, InterruptedException {
+        return this.stream.draw(this.prompt);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        this.stream.cancel();
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
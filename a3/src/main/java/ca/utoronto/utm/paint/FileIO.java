@@ -1,6 +1,7 @@
 package ca.utoronto.utm.paint;
 
 import java.io.*;
+import java.nio.file.Path;
 
 public class FileIO {
     /**
@@ -16,27 +17,22 @@ public class FileIO {
     }
 
     /**
-     * Write contents to fileName
+     * Write contents, and a line separator, to fileName. The file is replaced
+     * through an AtomicFile, so it is not left half written.
      *
      * @param contents
      * @param fileName
-     * @return
+     * @return whether the file was written
      */
     private static boolean writeFile(String contents, String fileName) {
-        boolean retVal = true;
-        PrintWriter out = null;
+        byte[] bytes = (contents + System.lineSeparator()).getBytes();
         try {
-            out = new PrintWriter(fileName);
-            out.println(contents);
+            AtomicFile.write(Path.of(fileName), out -> out.write(bytes));
+            return true;
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                if (out != null) out.close();
-            } catch (Exception e) {
-            }
+            Trace.error("Could not write " + fileName + ": " + e.getMessage());
+            return false;
         }
-        return retVal;
     }
 
     /**
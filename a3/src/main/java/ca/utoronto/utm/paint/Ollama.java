@@ -1,11 +1,8 @@
 package ca.utoronto.utm.paint;
 
-import org.json.JSONObject;
-
-import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 
 // https://www.geeksforgeeks.org/how-to-use-httpurlconnection-for-sending-http-post-requests-in-java/
 // https://www.baeldung.com/java-org-json
@@ -14,88 +11,101 @@ import java.net.URL;
 // https://www.llama.com/docs/model-cards-and-prompt-formats/meta-llama-3/
 
 public abstract class Ollama {
-    private String host = "dh2010pc42.utm.utoronto.ca";
-    private String url = "http://dh2010pc42.utm.utoronto.ca:11434/api/generate";
+    /**
+     * The most response text to remember in memory, in bytes, if responses are cached
+     */
+    public static final long CACHE_BYTES = 16 << 20;
+
+    private final String host;
+    private final OllamaClient client; // keeps its connections to host open between calls
 
     public Ollama(String host) {
-        this.host = host;
-        this.url = "http://" + this.host + ":11434/api/generate";
+        this(host, new OllamaClient(host));
     }
 
-    public String call(String system, String prompt) {
-        /**
-         curl http://localhost:11434/api/generate -d '{
-         "model": "llama3",
-         "prompt": "Answer the question: Give 3 examples of things that are red? Provide only the list of 3 items. Your answer should begin with ANSWER_START and end with ANSWER_END",
-         "stream": false
-         }'
-         **/
-
-        JSONObject data = new JSONObject();
-        data.put("model", "llama3");
-        data.put("stream", false);
+    /**
+     * @param host
+     * @param client makes the calls to host
+     */
+    protected Ollama(String host, OllamaClient client) {
+        this.host = host;
+        this.client = client;
+    }
 
-        JSONObject options = new JSONObject();
-        options.put("num_ctx", 8192);
+    public String getHost() {
+        return this.host;
+    }
 
-        data.put("options", options);
-        data.put("system", system);
-        data.put("prompt", prompt);
+    /**
+     * @return the client making the calls, to configure; it caches no
+     * responses unless given a cache, see OllamaClient.setCache
+     */
+    public OllamaClient getClient() {
+        return this.client;
+    }
 
-        String data_to_send = data.toString();
-        System.out.println(data_to_send);
+    /**
+     * Ask llama3 to respond to prompt.
+     *
+     * @param system the system prompt
+     * @param prompt
+     * @return the response, or "" if the call failed, as reported on standard error
+     */
+    public String call(String system, String prompt) {
+        return this.call(system, prompt, null);
+    }
 
-        String sResponse = "";
+    /**
+     * Ask llama3 to respond to prompt, passing each token to listener as
+     * soon as it is generated.
+     *
+     * @param system   the system prompt
+     * @param prompt
+     * @param listener receives the tokens, or null
+     * @return the response, or "" if the call failed, which is reported on
+     * standard error whether or not tracing is on
+     */
+    public String call(String system, String prompt, OllamaClient.TokenListener listener) {
+        try {
+            return this.client.generate(system, prompt, listener).getText();
+        } catch (IOException e) {
+            System.err.println("Error: Ollama call failed - " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Error: Ollama call interrupted");
+        }
+        return "";
+    }
 
-        HttpURLConnection connection = null;
+    /**
+     * Ask llama3 to respond to prompt, as call does, but failing rather
+     * than responding "".
+     *
+     * @param system the system prompt
+     * @param prompt
+     * @return the response
+     * @throws UncheckedIOException if the call failed, or was interrupted
+     */
+    protected String request(String system, String prompt) {
         try {
-            URL obj = new URI(url).toURL(); // Making an object to point to the API URL
-
-            // attempts to establish a connection to the URL represented by the obj.
-            connection = (HttpURLConnection) obj.openConnection();
-
-            // Set request method and enable writing to the connection
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-
-            // Set content type header,
-            // input (Content-Type) is in JSON (application/json) format.
-            connection.setRequestProperty("Content-Type", "application/json");
-
-            // Calling the API and send request data
-            // connection.getOutputStream() purpose is to obtain an output stream for sending data to the server.
-            try (DataOutputStream os = new DataOutputStream(connection.getOutputStream())) {
-                os.writeBytes(data_to_send);
-                os.flush();
-            }
-
-            // Get response code and handle response
-            int responseCode = connection.getResponseCode();
-
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                // HTTP_OK or 200 response code generally means that the server ran successfully without any errors
-                StringBuilder response = new StringBuilder();
-
-                // Read response content
-                // connection.getInputStream() purpose is to obtain an input stream for reading the server's response.
-                try (
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line); // Adds every line to response till the end of file.
-                    }
-                }
-                JSONObject jo = new JSONObject(response.toString());
-                sResponse = (String) jo.get("response");
-            } else {
-                System.out.println("Error: HTTP Response code - " + responseCode);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            if (connection != null) connection.disconnect();
+            return this.client.generate(system, prompt, null).getText();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ollama call failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Ollama call interrupted"));
+        }
+    }
+
+    /**
+     * Write contents to fileName in the user's home directory.
+     *
+     * @throws UncheckedIOException if it could not be written
+     */
+    protected static void writeHomeFile(String contents, String fileName) {
+        if (!FileIO.writeHomeFile(contents, fileName)) {
+            throw new UncheckedIOException(new IOException("Failed to write " + fileName));
         }
-        return sResponse;
     }
 
     /**
@@ -0,0 +1,440 @@
+package ca.utoronto.utm.paint;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Calls the generate API of an Ollama server, streaming the response.
+ *
+ * Ollama streams a response as lines of JSON, one per token or few tokens,
+ * the last with "done" true and the token counts. Each token is passed to a
+ * TokenListener as soon as its line arrives, so a response can be shown, or
+ * parsed, while it is still being generated.
+ *
+ * The requests of a client share one HttpClient, which keeps connections
+ * open between requests, so a batch of calls to a host does not connect for
+ * each. A request that fails before any token arrives, because the server
+ * could not be reached, timed out, or answered 429 or 5xx, is retried up to
+ * maxAttempts times in all, waiting backoff, then twice as long, and so on,
+ * between attempts. A request failing after tokens have been passed on is
+ * not retried, as the listener would be given them again.
+ *
+ * With an OllamaResponseCache, which a client has only if given one, a
+ * request made before is answered from it, without calling the server,
+ * unless the cache is bypassed, for a fresh response; the fresh response then
+ * replaces the one cached. A caller asking for several samples of the
+ * responses to one prompt names each, so each is cached apart. A caller that
+ * checks each response can have it cached only once it passes.
+ */
+public class OllamaClient {
+    /**
+     * The port Ollama listens on
+     */
+    public static final int DEFAULT_PORT = 11434;
+
+    /**
+     * Receives the tokens of a response as they arrive, on the thread calling generate.
+     */
+    public interface TokenListener {
+        public void token(String token);
+    }
+
+    /**
+     * A complete response.
+     */
+    public static class Generation {
+        private final String text;
+        private final int promptTokens;
+        private final int responseTokens;
+        private final int attempts;
+
+        Generation(String text, int promptTokens, int responseTokens, int attempts) {
+            this.text = text;
+            this.promptTokens = promptTokens;
+            this.responseTokens = responseTokens;
+            this.attempts = attempts;
+        }
+
+        /**
+         * @return all of the tokens of the response
+         */
+        public String getText() {
+            return this.text;
+        }
+
+        /**
+         * @return the number of tokens in the prompt, as counted by the server, or -1 if not given
+         */
+        public int getPromptTokens() {
+            return this.promptTokens;
+        }
+
+        /**
+         * @return the number of tokens generated, as counted by the server, or -1 if not given
+         */
+        public int getResponseTokens() {
+            return this.responseTokens;
+        }
+
+        /**
+         * @return the number of requests made to get this, 1 if it was not retried, 0 if it was cached
+         */
+        public int getAttempts() {
+            return this.attempts;
+        }
+    }
+
+    // Closes the responses of requests that stop sending tokens
+    static final ScheduledThreadPoolExecutor watchdog = newWatchdog();
+
+    private static ScheduledThreadPoolExecutor newWatchdog() {
+        ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Ollama idle timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // A timer is scheduled, and cancelled, for every line of every response; drop each at once
+        watchdog.setRemoveOnCancelPolicy(true);
+        return watchdog;
+    }
+
+    private final URI uri;
+    private final HttpClient httpClient;
+    private String model = "llama3";
+    private int contextSize = 8192;
+    private Duration timeout = Duration.ofSeconds(60); // until the response starts
+    private Duration idleTimeout = Duration.ofSeconds(60); // between lines of the response
+    private int maxAttempts = 3;
+    private Duration backoff = Duration.ofMillis(500);
+    private OllamaResponseCache cache; // null if responses are not cached
+    private boolean cacheBypassed = false;
+
+    /**
+     * A client of the Ollama server at host, on DEFAULT_PORT
+     *
+     * @param host
+     */
+    public OllamaClient(String host) {
+        this(host, DEFAULT_PORT, Duration.ofSeconds(10));
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @param connectTimeout the longest to wait to connect to the server
+     */
+    public OllamaClient(String host, int port, Duration connectTimeout) {
+        this.uri = URI.create("http://" + host + ":" + port + "/api/generate");
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1) // what Ollama serves
+                .connectTimeout(connectTimeout)
+                .build();
+    }
+
+    public URI getUri() {
+        return this.uri;
+    }
+
+    public String getModel() {
+        return this.model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public int getContextSize() {
+        return this.contextSize;
+    }
+
+    /**
+     * @param contextSize the num_ctx option, the tokens of prompt and response the model attends to
+     */
+    public void setContextSize(int contextSize) {
+        this.contextSize = contextSize;
+    }
+
+    public Duration getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * @param timeout the longest to wait for the response to start
+     */
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    public Duration getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    /**
+     * @param idleTimeout the longest to wait for each line of the response, once it has started
+     */
+    public void setIdleTimeout(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts the most requests to make for one call, at least 1
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public Duration getBackoff() {
+        return this.backoff;
+    }
+
+    /**
+     * @param backoff the wait before the first retry, doubled before each one after
+     */
+    public void setBackoff(Duration backoff) {
+        this.backoff = backoff;
+    }
+
+    public OllamaResponseCache getCache() {
+        return this.cache;
+    }
+
+    /**
+     * @param cache remembers the responses, or null to not cache them
+     */
+    public void setCache(OllamaResponseCache cache) {
+        this.cache = cache;
+    }
+
+    public boolean isCacheBypassed() {
+        return this.cacheBypassed;
+    }
+
+    /**
+     * @param cacheBypassed whether to always call the server, for a fresh response, still caching it
+     */
+    public void setCacheBypassed(boolean cacheBypassed) {
+        this.cacheBypassed = cacheBypassed;
+    }
+
+    /**
+     * @param system
+     * @param prompt
+     * @return the body of a request to generate a response to prompt
+     */
+    String requestBody(String system, String prompt) {
+        JSONObject data = new JSONObject();
+        data.put("model", this.model);
+        data.put("stream", true);
+
+        JSONObject options = new JSONObject();
+        options.put("num_ctx", this.contextSize);
+
+        data.put("options", options);
+        data.put("system", system);
+        data.put("prompt", prompt);
+        return data.toString();
+    }
+
+    /**
+     * @param body   the body of a request
+     * @param sample names the sample of the responses to the request, or null
+     * @return the key of the response in the cache
+     */
+    private static String cacheKey(String body, String sample) {
+        return OllamaResponseCache.key(sample == null ? body : body + "\n" + sample);
+    }
+
+    /**
+     * Generate a response to prompt, passing each token to listener as it arrives.
+     *
+     * @param system   the system prompt
+     * @param prompt
+     * @param listener receives the tokens, or null
+     * @return the complete response
+     * @throws IOException          if the server could not be reached, timed out or failed, after any retries
+     * @throws InterruptedException if interrupted while waiting for the server
+     */
+    public Generation generate(String system, String prompt, TokenListener listener)
+            throws IOException, InterruptedException {
+        return this.generate(system, prompt, listener, null, true);
+    }
+
+    /**
+     * Generate a response to prompt, passing each token to listener as it arrives.
+     *
+     * @param system   the system prompt
+     * @param prompt
+     * @param listener receives the tokens, or null
+     * @param sample   names this sample of the responses to prompt, so the cache tells it apart
+     *                 from the others, or null if there is only one
+     * @param store    whether to cache the response; if not, it can be cached later with cache
+     * @return the complete response
+     * @throws IOException          if the server could not be reached, timed out or failed, after any retries
+     * @throws InterruptedException if interrupted while waiting for the server
+     */
+    public Generation generate(String system, String prompt, TokenListener listener, String sample, boolean store)
+            throws IOException, InterruptedException {
+        String body = this.requestBody(system, prompt);
+        if (Trace.isEnabled(Trace.Level.DEBUG)) Trace.debug(body);
+        OllamaResponseCache cache = this.cache;
+        String key = cache == null ? null : cacheKey(body, sample);
+        if (cache != null && !this.cacheBypassed) {
+            Generation cached = cache.get(key);
+            if (cached != null) {
+                if (listener != null && !cached.getText().isEmpty()) listener.token(cached.getText());
+                return cached;
+            }
+        }
+        HttpRequest request = HttpRequest.newBuilder(this.uri)
+                .timeout(this.timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+
+        long wait = this.backoff.toMillis();
+        for (int attempt = 1; ; attempt++) {
+            Attempt a = new Attempt(listener);
+            try {
+                Generation generation = a.send(request, attempt);
+                if (cache != null && store) cache.put(key, generation);
+                return generation;
+            } catch (IOException e) {
+                if (a.streamed || attempt >= this.maxAttempts || !a.retryable) throw e;
+                Trace.info("Ollama request failed, retrying in " + wait + "ms: " + e.getMessage());
+            }
+            Thread.sleep(wait);
+            wait *= 2;
+        }
+    }
+
+    /**
+     * Cache generation as the response to prompt, as generate does unless told not to.
+     *
+     * @param system
+     * @param prompt
+     * @param sample     as given to generate
+     * @param generation
+     */
+    public void cache(String system, String prompt, String sample, Generation generation) {
+        OllamaResponseCache cache = this.cache;
+        if (cache != null) cache.put(cacheKey(this.requestBody(system, prompt), sample), generation);
+    }
+
+    /**
+     * One request of a call to generate.
+     */
+    private class Attempt {
+        private final TokenListener listener;
+        boolean streamed = false; // whether the listener has been given tokens
+        boolean retryable = true; // whether the failure may not happen again
+
+        Attempt(TokenListener listener) {
+            this.listener = listener;
+        }
+
+        Generation send(HttpRequest request, int attempt) throws IOException, InterruptedException {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream in = response.body()) {
+                int status = response.statusCode();
+                if (status != 200) {
+                    this.retryable = status == 429 || status >= 500;
+                    throw new IOException("HTTP response code " + status + ": " + errorOf(in));
+                }
+                return this.read(in, attempt);
+            }
+        }
+
+        private Generation read(InputStream in, int attempt) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            StringBuilder text = new StringBuilder();
+            AtomicBoolean timedOut = new AtomicBoolean(false);
+            Runnable close = () -> {
+                timedOut.set(true);
+                try {
+                    in.close(); // the blocked readLine then ends, or throws
+                } catch (IOException e) {
+                    // Closed anyway
+                }
+            };
+            String line;
+            Generation generation = null; // once done
+            while (true) {
+                ScheduledFuture<?> timer = watchdog.schedule(close, idleTimeout.toMillis(), TimeUnit.MILLISECONDS);
+                try {
+                    line = reader.readLine();
+                } catch (IOException e) {
+                    line = null;
+                    if (!timedOut.get()) throw e;
+                } finally {
+                    timer.cancel(false);
+                }
+                if (timedOut.get()) throw new HttpTimeoutException("No response from Ollama for " + idleTimeout);
+                if (line == null) break;
+                if (line.isEmpty() || generation != null) continue;
+
+                JSONObject chunk;
+                try {
+                    chunk = new JSONObject(line);
+                } catch (JSONException e) {
+                    this.retryable = false;
+                    throw new IOException("Invalid response from Ollama: " + line);
+                }
+                if (chunk.has("error")) {
+                    this.retryable = false;
+                    throw new IOException("Ollama error: " + chunk.get("error"));
+                }
+                String token = chunk.optString("response", "");
+                if (!token.isEmpty()) {
+                    text.append(token);
+                    if (this.listener != null) {
+                        this.streamed = true;
+                        this.listener.token(token);
+                    }
+                }
+                if (chunk.optBoolean("done", false)) {
+                    // Read on to the end, so the connection can be used again
+                    generation = new Generation(text.toString(), chunk.optInt("prompt_eval_count", -1),
+                            chunk.optInt("eval_count", -1), attempt);
+                }
+            }
+            if (generation == null) throw new IOException("Ollama response ended before it was done");
+            return generation;
+        }
+    }
+
+    /**
+     * @return the error given in the body of a failed response, if any
+     */
+    private static String errorOf(InputStream in) {
+        try {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            try {
+                return new JSONObject(body).optString("error", body);
+            } catch (JSONException e) {
+                return body;
+            }
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+}
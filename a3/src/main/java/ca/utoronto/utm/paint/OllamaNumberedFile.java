@@ -1,5 +1,7 @@
 package ca.utoronto.utm.paint;
 
+import java.io.UncheckedIOException;
+
 public class OllamaNumberedFile extends Ollama {
     public OllamaNumberedFile(String host) {
         super(host);
@@ -11,14 +13,15 @@ public class OllamaNumberedFile extends Ollama {
      * @param prompt      the user supplied prompt
      * @param inFileName  the Numbered File Format file to be read and modified to outFileName
      * @param outFileName the file name where the response will live
+     * @throws UncheckedIOException if the call failed, or outFileName could not be written
      */
     public void modifyFile(String prompt, String inFileName, String outFileName) {
         String format = FileIO.readResourceFile("numberedDocumentFormat.txt");
         String system = "The answer to this question should be a Numbered Document. Respond only with a Numbered Document and nothing else. " + format;
         String f = FileIO.readHomeFile(inFileName);
         String fullPrompt = "Produce a new Numbered Document, resulting from the following OPERATION being performed on the following Numbered Document. OPERATION START" + prompt + " OPERATION END " + f;
-        String response = this.call(system, fullPrompt);
-        FileIO.writeHomeFile(response, outFileName);
+        String response = this.request(system, fullPrompt);
+        writeHomeFile(response, outFileName);
     }
 
     /**
@@ -26,12 +29,13 @@ public class OllamaNumberedFile extends Ollama {
      *
      * @param prompt
      * @param outFileName
+     * @throws UncheckedIOException if the call failed, or outFileName could not be written
      */
     public void newFile(String prompt, String outFileName) {
         String format = FileIO.readResourceFile("numberedDocumentFormat.txt");
         String system = "The answer to this question should be a Numbered Document. Respond only with a Numbered Document and nothing else. " + format;
-        String response = this.call(system, prompt);
-        FileIO.writeHomeFile(response, outFileName);
+        String response = this.request(system, prompt);
+        writeHomeFile(response, outFileName);
     }
 
     @Override
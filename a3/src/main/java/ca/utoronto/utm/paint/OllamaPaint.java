@@ -1,13 +1,27 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class OllamaPaint extends Ollama {
+    /**
+     * The Ollama server used, which can be set with the system property paint.ollama.host
+     */
+    public static final String HOST = System.getProperty("paint.ollama.host", "dh2010pc42.utm.utoronto.ca");
+
     private final String system;
+    private final OllamaPaintValidator validator; // so only files that parse are written
 
     public OllamaPaint(String host) {
-        super(host);
+        this(host, new OllamaClient(host));
+    }
+
+    private OllamaPaint(String host, OllamaClient client) {
+        super(host, client);
 
         // Preparing a system prompt with Format, Example, and Constraints:
         String format = FileIO.readResourceFile("paintSaveFileFormat.txt");
@@ -46,6 +60,23 @@ public class OllamaPaint extends Ollama {
         String specific_example = FileIO.readResourceFile("concentric_circles.txt");
 
         this.system = warnings + "\n" + format + "\n" + constraints + "\nExample:\n" + example + "\nConcentric Circles Example:\n" + specific_example;
+        this.validator = new OllamaPaintValidator(client, this.system);
+    }
+
+    /**
+     * @return what decides how many tries a file gets, and counts what they cost
+     */
+    public OllamaPaintValidator getValidator() {
+        return this.validator;
+    }
+
+    /**
+     * @param model       where to draw
+     * @param modelThread runs each task on the thread the model is changed on
+     * @return a stream drawing what llama3 generates into model as it is generated
+     */
+    public OllamaPaintStream streamInto(PaintModel model, Executor modelThread) {
+        return new OllamaPaintStream(this.getClient(), this.system, model, modelThread);
     }
 
     /**
@@ -55,8 +86,33 @@ public class OllamaPaint extends Ollama {
      * @param outFileName name of new file to be created in users home directory
      */
     public void newFile(String prompt, String outFileName) {
-        String processedResponse = postProcess(this.call(system, prompt));
-        FileIO.writeHomeFile(processedResponse, outFileName);
+        writeHomeFile(this.generate(prompt, outFileName), outFileName);
+    }
+
+    /**
+     * Ask llama3 for a Paint File in response to prompt, until it gives one that parses.
+     *
+     * @param prompt
+     * @param outFileName the file it is for
+     * @return the Paint File
+     * @throws UncheckedIOException if the call failed, or no response parsed
+     */
+    private String generate(String prompt, String outFileName) {
+        OllamaPaintValidator.Outcome outcome;
+        try {
+            // Each file is a sample of its own, as several may be generated from one prompt
+            outcome = this.validator.generate(prompt, outFileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ollama call failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Ollama call interrupted"));
+        }
+        if (!outcome.isValid()) {
+            throw new UncheckedIOException(new IOException("No valid Paint Save File in "
+                    + outcome.getAttempts() + " attempts: " + outcome.getErrorMessage()));
+        }
+        return outcome.getText();
     }
 
     /**
@@ -71,8 +127,7 @@ public class OllamaPaint extends Ollama {
         String fullPrompt = "Produce a new PaintSaveFileFormat Document, resulting from the following OPERATION " +
                 "being performed on the following PaintSaveFileFormat Document. OPERATION START"
                 + prompt + " OPERATION END " + f + "\n\nEnsure that modifications follow:\n\n" + system;
-        String processedResponse = postProcess(this.call(system, fullPrompt));
-        FileIO.writeHomeFile(processedResponse, outFileName);
+        writeHomeFile(this.generate(fullPrompt, outFileName), outFileName);
     }
 
     /**
@@ -222,7 +277,24 @@ public class OllamaPaint extends Ollama {
     }
 
 
-    private String postProcess(String result) {
+    /**
+     * Clean up a response of the model into a Paint Save File.
+     *
+     * @param result the response
+     * @return the Paint Save File
+     */
+    static String postProcess(String result) {
+        return PaintResponseNormalizer.normalize(result);
+    }
+
+    /**
+     * Clean up a response of the model as postProcess does, in a pass for
+     * each step; what PaintResponseNormalizer is checked and benchmarked against.
+     *
+     * @param result the response
+     * @return the Paint Save File
+     */
+    static String postProcessByRegex(String result) {
         // Remove possible quotation marks (") and periods (.):
         String processedResult = result.replaceAll("[\".*]", "");
 
@@ -303,44 +375,75 @@ public class OllamaPaint extends Ollama {
      *
      * @param args
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         String prompt;
 
-        OllamaPaint op = new OllamaPaint("dh2010pc42.utm.utoronto.ca"); // Replace this with your assigned Ollama server.
+        OllamaPaint op = new OllamaPaint(HOST); // Set paint.ollama.host to your assigned Ollama server.
+        if (Boolean.getBoolean("paint.ollama.cache")) {
+            // Running the batch again answers each file from ~/.paint-ollama-cache
+            op.getClient().setCache(OllamaResponseCache.inHomeDirectory(CACHE_BYTES));
+        }
+
+        // The files are generated at once, each modification once the file it modifies has been
+        OllamaPaintBatch batch = new OllamaPaintBatch(Integer.getInteger("paint.ollama.concurrency", 4));
 
         // One
         prompt = "Draw a 100 by 120 rectangle with 4 radius 5 circles at each rectangle corner.";
-        op.newFile(prompt, "OllamaPaintFile1.txt");
+        batch.newFile(op, prompt, "OllamaPaintFile1.txt");
 
         // Two
-        op.modifyFile("Remove all shapes except for the circles.", "OllamaPaintFile1.txt", "OllamaPaintFile2.txt");
+        batch.modifyFile(op, "Remove all shapes except for the circles.", "OllamaPaintFile1.txt", "OllamaPaintFile2.txt");
 
         // Three
         prompt = "Draw 5 concentric circles with different colors.";
-        op.newFile(prompt, "OllamaPaintFile3.txt");
+        batch.newFile(op, prompt, "OllamaPaintFile3.txt");
 
         // Four
-        op.modifyFile("Change all circles into rectangles.", "OllamaPaintFile3.txt", "OllamaPaintFile4.txt");
+        batch.modifyFile(op, "Change all circles into rectangles.", "OllamaPaintFile3.txt", "OllamaPaintFile4.txt");
 
         // Five
         prompt = "Draw a polyline then two circles then a rectangle then 3 polylines all with different colors.";
-        op.newFile(prompt, "OllamaPaintFile5.txt");
+        batch.newFile(op, prompt, "OllamaPaintFile5.txt");
 
         // Six
         prompt = "Modify the following Paint Save File so that each circle is surrounded by a non-filled rectangle. ";
-        op.modifyFile(prompt, "OllamaPaintFile5.txt", "OllamaPaintFile6.txt");
+        batch.modifyFile(op, prompt, "OllamaPaintFile5.txt", "OllamaPaintFile6.txt");
 
         for (int i = 1; i <= 3; i++) {
-            op.newFile1("PaintFile1_" + i + ".txt");
-            op.newFile2("PaintFile2_" + i + ".txt");
-            op.newFile3("PaintFile3_" + i + ".txt");
+            String file1 = "PaintFile1_" + i + ".txt", file2 = "PaintFile2_" + i + ".txt", file3 = "PaintFile3_" + i + ".txt";
+            batch.add(file1, op, () -> op.newFile1(file1));
+            batch.add(file2, op, () -> op.newFile2(file2));
+            batch.add(file3, op, () -> op.newFile3(file3));
         }
         for (int i = 1; i <= 3; i++) {
             for (int j = 1; j <= 3; j++) {
-                op.modifyFile1("PaintFile" + i + "_" + j + ".txt", "PaintFile" + i + "_" + j + "_1.txt");
-                op.modifyFile2("PaintFile" + i + "_" + j + ".txt", "PaintFile" + i + "_" + j + "_2.txt");
-                op.modifyFile3("PaintFile" + i + "_" + j + ".txt", "PaintFile" + i + "_" + j + "_3.txt");
+                String in = "PaintFile" + i + "_" + j + ".txt", out = "PaintFile" + i + "_" + j;
+                batch.add(out + "_1.txt", op, () -> op.modifyFile1(in, out + "_1.txt"), in);
+                batch.add(out + "_2.txt", op, () -> op.modifyFile2(in, out + "_2.txt"), in);
+                batch.add(out + "_3.txt", op, () -> op.modifyFile3(in, out + "_3.txt"), in);
             }
         }
+
+        // The summary is printed whether or not tracing is on, and any job not done fails the run
+        long start = System.nanoTime();
+        int notDone = 0;
+        for (OllamaPaintBatch.Result result : batch.run().values()) {
+            if (result.getStatus() == OllamaPaintBatch.Status.SUCCEEDED) {
+                System.out.println(result);
+            } else {
+                System.err.println(result);
+                notDone++;
+            }
+        }
+        System.out.println("Batch took " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        System.out.println(op.getValidator().getStats());
+        if (op.getClient().getCache() != null) {
+            System.out.println("Cache: " + op.getClient().getCache());
+        }
+        if (notDone > 0) {
+            System.err.println(notDone + " files were not written");
+            System.exit(1);
+        }
     }
+
 }
@@ -0,0 +1,215 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs a batch of Ollama generation jobs at once, each on its own virtual
+ * thread, so the batch takes about as long as its slowest chain of
+ * dependent jobs rather than as long as all of its jobs.
+ *
+ * Each job is named by the file it writes, and may depend on the files other
+ * jobs of the batch write, as modifyFile depends on the file it modifies;
+ * it starts once they have all been written. A job whose dependency failed
+ * is skipped. At most maxConcurrentPerHost jobs call each Ollama server at
+ * once, as a server generating more responses at once only generates each
+ * more slowly.
+ */
+public class OllamaPaintBatch {
+    public enum Status {SUCCEEDED, FAILED, SKIPPED}
+
+    /**
+     * What happened to a job.
+     */
+    public static class Result {
+        private final String name;
+        private final Status status;
+        private final Throwable failure;
+        private final long elapsedNanos;
+
+        Result(String name, Status status, Throwable failure, long elapsedNanos) {
+            this.name = name;
+            this.status = status;
+            this.failure = failure;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public Status getStatus() {
+            return this.status;
+        }
+
+        /**
+         * @return what the job threw, if it failed, or the failure of the
+         * dependency it was skipped for, otherwise null
+         */
+        public Throwable getFailure() {
+            return this.failure;
+        }
+
+        /**
+         * @return how long the job ran, not counting the wait for its dependencies or its host
+         */
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return this.name + ": " + this.status + (this.failure == null ? "" : " (" + this.failure + ")");
+        }
+    }
+
+    private static class Job {
+        final String name;
+        final String host;
+        final Runnable action;
+        final List<String> dependencies;
+        CompletableFuture<Result> result;
+
+        Job(String name, String host, Runnable action, List<String> dependencies) {
+            this.name = name;
+            this.host = host;
+            this.action = action;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final int maxConcurrentPerHost;
+    private Map<String, Job> jobs = new LinkedHashMap<String, Job>(); // by name, in the order added
+
+    /**
+     * @param maxConcurrentPerHost the most jobs to run at once on each Ollama server
+     */
+    public OllamaPaintBatch(int maxConcurrentPerHost) {
+        this.maxConcurrentPerHost = maxConcurrentPerHost;
+    }
+
+    /**
+     * Add a job to the batch.
+     *
+     * @param name         the name of the job, the file it writes
+     * @param ollama       the server the job calls
+     * @param action       the job, throwing to fail
+     * @param dependencies the names of the jobs to run first; names of no job of the batch are files that already exist
+     */
+    public void add(String name, Ollama ollama, Runnable action, String... dependencies) {
+        if (this.jobs.containsKey(name)) {
+            throw new IllegalArgumentException("Two jobs write " + name);
+        }
+        this.jobs.put(name, new Job(name, ollama.getClient().getUri().getAuthority(), action, List.of(dependencies)));
+    }
+
+    /**
+     * Add a job generating outFileName with ollama.newFile.
+     */
+    public void newFile(Ollama ollama, String prompt, String outFileName) {
+        this.add(outFileName, ollama, () -> ollama.newFile(prompt, outFileName));
+    }
+
+    /**
+     * Add a job generating outFileName with ollama.modifyFile, once inFileName has been written.
+     */
+    public void modifyFile(Ollama ollama, String prompt, String inFileName, String outFileName) {
+        this.add(outFileName, ollama, () -> ollama.modifyFile(prompt, inFileName, outFileName), inFileName);
+    }
+
+    /**
+     * Run the jobs, and wait for them all to finish.
+     *
+     * @return the result of each job, by name, in the order they were added
+     * @throws IllegalStateException if jobs depend on each other in a cycle
+     * @throws InterruptedException  if interrupted while waiting; the jobs running are interrupted too
+     */
+    public Map<String, Result> run() throws InterruptedException {
+        this.checkForCycles();
+        Map<String, Semaphore> hosts = new HashMap<String, Semaphore>();
+        for (Job job : this.jobs.values()) {
+            job.result = new CompletableFuture<Result>(); // of this run
+            hosts.computeIfAbsent(job.host, host -> new Semaphore(this.maxConcurrentPerHost, true));
+        }
+
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Job job : this.jobs.values()) {
+                executor.submit(() -> job.result.complete(this.run(job, hosts.get(job.host))));
+            }
+            for (Job job : this.jobs.values()) {
+                try {
+                    results.put(job.name, job.result.get());
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    throw e;
+                } catch (ExecutionException e) {
+                    throw new AssertionError(e); // run catches everything
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Run job once its dependencies have succeeded, holding a permit of host while it runs.
+     */
+    private Result run(Job job, Semaphore host) {
+        for (String name : job.dependencies) {
+            Job dependency = this.jobs.get(name);
+            if (dependency == null) continue; // an existing file
+            Result result = dependency.result.join();
+            if (result.getStatus() != Status.SUCCEEDED) {
+                Trace.info(job.name + " skipped, as " + name + " was not written.");
+                return new Result(job.name, Status.SKIPPED, result.getFailure(), 0);
+            }
+        }
+        try {
+            host.acquire();
+        } catch (InterruptedException e) {
+            return new Result(job.name, Status.FAILED, e, 0);
+        }
+        long start = System.nanoTime();
+        try {
+            job.action.run();
+            return new Result(job.name, Status.SUCCEEDED, null, System.nanoTime() - start);
+        } catch (RuntimeException | Error e) {
+            Trace.error(job.name + " failed: " + e);
+            return new Result(job.name, Status.FAILED, e, System.nanoTime() - start);
+        } finally {
+            host.release();
+        }
+    }
+
+    private void checkForCycles() {
+        Set<String> done = new HashSet<String>();
+        for (String name : this.jobs.keySet()) {
+            this.visit(name, new ArrayList<String>(), done);
+        }
+    }
+
+    private void visit(String name, ArrayList<String> path, Set<String> done) {
+        Job job = this.jobs.get(name);
+        if (job == null || done.contains(name)) return;
+        if (path.contains(name)) {
+            path.add(name);
+            throw new IllegalStateException("Jobs depend on each other: " + String.join(" -> ", path));
+        }
+        path.add(name);
+        for (String dependency : job.dependencies) {
+            this.visit(dependency, path, done);
+        }
+        path.remove(path.size() - 1);
+        done.add(name);
+    }
+}
@@ -0,0 +1,179 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Draws what Ollama generates into a PaintModel while it is still being
+ * generated, each shape appearing as soon as the line ending it arrives,
+ * rather than once the whole response has.
+ *
+ * The tokens of the response go through a PaintResponseNormalizer, whose
+ * lines are parsed by a PaintFileParser on a thread of its own,
+ * which adds each command to the model on the model thread as soon as it is
+ * parsed. Should the normalizer withdraw the lines it gave, the commands
+ * added from them are removed, and the lines given after are parsed afresh.
+ */
+public class OllamaPaintStream {
+    private static final Object END = new Object(); // ends the lines of a parse
+
+    private final OllamaClient client;
+    private final String system;
+    private final PaintModel model;
+    private final Executor modelThread;
+    private volatile boolean cancelled = false;
+    private Parse parse; // of the lines given since the last reset
+
+    /**
+     * @param client      calls Ollama
+     * @param system      the system prompt
+     * @param model       where to draw
+     * @param modelThread runs each task on the thread the model is changed on
+     */
+    public OllamaPaintStream(OllamaClient client, String system, PaintModel model, Executor modelThread) {
+        this.client = client;
+        this.system = system;
+        this.model = model;
+        this.modelThread = modelThread;
+    }
+
+    /**
+     * Ask llama3 for a Paint File in response to prompt, drawing its shapes
+     * as they arrive. Shapes parsed before an error are kept.
+     *
+     * @param prompt
+     * @return the number of shapes drawn
+     * @throws IOException           if Ollama could not be called, or the response is not a valid Paint Save File
+     * @throws InterruptedException  if interrupted while waiting for Ollama
+     * @throws CancellationException if cancelled
+     */
+    public int draw(String prompt) throws IOException, InterruptedException {
+        PaintResponseNormalizer normalizer = new PaintResponseNormalizer(new PaintResponseNormalizer.LineListener() {
+            @Override
+            public void line(String line) {
+                parse.lines.add(line);
+            }
+
+            @Override
+            public void reset() {
+                parse.withdraw();
+                parse = new Parse();
+            }
+        });
+        this.parse = new Parse();
+        try {
+            this.client.generate(this.system, prompt, token -> {
+                if (this.cancelled) throw new CancellationException("Drawing cancelled");
+                normalizer.token(token);
+            });
+            normalizer.finish();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            this.parse.parser.cancel();
+            throw e;
+        } finally {
+            this.parse.lines.add(END);
+        }
+        this.parse.thread.join();
+        if (!this.parse.parsed) throw new IOException(this.parse.parser.getErrorMessage());
+        return this.parse.commands.get();
+    }
+
+    /**
+     * Stop drawing; draw then throws CancellationException. May be called from any thread.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * The parse of the lines given since the last reset, and the commands it added.
+     */
+    private class Parse {
+        final BlockingQueue<Object> lines = new LinkedBlockingQueue<Object>(); // Strings, then END
+        final PaintFileParser parser = new PaintFileParser();
+        final AtomicInteger commands = new AtomicInteger();
+        final List<PaintCommand> added = new ArrayList<PaintCommand>(); // on the model thread
+        final Thread thread;
+        volatile boolean withdrawn = false;
+        volatile boolean parsed = false;
+
+        Parse() {
+            // Not a virtual thread, which would be pinned to its carrier while the BufferedReader waits for a line
+            this.thread = Thread.ofPlatform().daemon().name("Ollama drawing parser").start(() -> {
+                this.parsed = this.parser.parse(new BufferedReader(new LineReader(this.lines)), command -> {
+                    this.commands.incrementAndGet();
+                    modelThread.execute(() -> {
+                        if (this.withdrawn) return;
+                        model.addCommand(command);
+                        this.added.add(command);
+                    });
+                });
+            });
+        }
+
+        /**
+         * Stop the parse, and remove the commands it added.
+         */
+        void withdraw() {
+            this.withdrawn = true;
+            this.parser.cancel();
+            this.lines.add(END);
+            modelThread.execute(() -> {
+                for (PaintCommand command : this.added) {
+                    model.removeCommand(command);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the lines in a queue, waiting for each, until END.
+     */
+    private static class LineReader extends Reader {
+        private final BlockingQueue<Object> lines;
+        private String line = "";
+        private int position = 0;
+        private boolean ended = false;
+
+        LineReader(BlockingQueue<Object> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            while (this.position == this.line.length()) {
+                if (this.ended) return -1;
+                Object next;
+                try {
+                    next = this.lines.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                if (next == END) {
+                    this.ended = true;
+                    return -1;
+                }
+                this.line = next + "\n";
+                this.position = 0;
+            }
+            int n = Math.min(length, this.line.length() - this.position);
+            this.line.getChars(this.position, this.position + n, buffer, offset);
+            this.position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
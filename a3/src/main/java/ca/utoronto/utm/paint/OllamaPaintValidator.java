@@ -0,0 +1,264 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Generates Paint Save Files with Ollama, parsing each response as soon as
+ * it arrives, so a file that does not parse is never written.
+ *
+ * A response that does not parse is sent back to the model, with the error
+ * and the line it is in, asking for the whole file again, corrected. This
+ * repeats until a response parses, or maxAttempts responses have been
+ * generated, or the prompts and responses so far have taken maxTokens tokens.
+ *
+ * Only a response that parses is cached, if the client caches responses, so
+ * asking again does not replay the invalid ones.
+ *
+ * The attempts, tokens and time each drawing took are added up in Stats, to
+ * show what a valid drawing really costs. Generate may be called from
+ * several threads at once.
+ */
+public class OllamaPaintValidator {
+    /**
+     * The end of a generation of a drawing.
+     */
+    public static class Outcome {
+        private final String text;
+        private final String errorMessage;
+        private final int attempts;
+        private final int tokens;
+        private final long elapsedNanos;
+
+        Outcome(String text, String errorMessage, int attempts, int tokens, long elapsedNanos) {
+            this.text = text;
+            this.errorMessage = errorMessage;
+            this.attempts = attempts;
+            this.tokens = tokens;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isValid() {
+            return this.errorMessage == null;
+        }
+
+        /**
+         * @return the Paint Save File, or the last response if none was valid
+         */
+        public String getText() {
+            return this.text;
+        }
+
+        /**
+         * @return the error in the last response, or null if it was valid
+         */
+        public String getErrorMessage() {
+            return this.errorMessage;
+        }
+
+        /**
+         * @return the number of responses generated
+         */
+        public int getAttempts() {
+            return this.attempts;
+        }
+
+        /**
+         * @return the tokens of all the prompts and responses
+         */
+        public int getTokens() {
+            return this.tokens;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+    }
+
+    /**
+     * The outcomes of the drawings generated so far, added up.
+     */
+    public static class Stats {
+        private int drawings, validDrawings, attempts;
+        private long tokens, elapsedNanos, maxElapsedNanos;
+
+        Stats() {
+        }
+
+        Stats(Stats stats) {
+            this.drawings = stats.drawings;
+            this.validDrawings = stats.validDrawings;
+            this.attempts = stats.attempts;
+            this.tokens = stats.tokens;
+            this.elapsedNanos = stats.elapsedNanos;
+            this.maxElapsedNanos = stats.maxElapsedNanos;
+        }
+
+        void add(Outcome outcome) {
+            this.drawings++;
+            if (outcome.isValid()) this.validDrawings++;
+            this.attempts += outcome.getAttempts();
+            this.tokens += outcome.getTokens();
+            this.elapsedNanos += outcome.getElapsedNanos();
+            this.maxElapsedNanos = Math.max(this.maxElapsedNanos, outcome.getElapsedNanos());
+        }
+
+        public int getDrawings() {
+            return this.drawings;
+        }
+
+        public int getValidDrawings() {
+            return this.validDrawings;
+        }
+
+        public int getAttempts() {
+            return this.attempts;
+        }
+
+        public long getTokens() {
+            return this.tokens;
+        }
+
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+
+        public long getMaxElapsedNanos() {
+            return this.maxElapsedNanos;
+        }
+
+        /**
+         * @return the responses generated for each valid drawing, invalid drawings included,
+         * or 0 if no drawing was valid
+         */
+        public double getAttemptsPerValidDrawing() {
+            return this.validDrawings == 0 ? 0 : (double) this.attempts / this.validDrawings;
+        }
+
+        /**
+         * @return the tokens taken for each valid drawing, invalid drawings included,
+         * or 0 if no drawing was valid
+         */
+        public double getTokensPerValidDrawing() {
+            return this.validDrawings == 0 ? 0 : (double) this.tokens / this.validDrawings;
+        }
+
+        @Override
+        public String toString() {
+            long millis = this.elapsedNanos / 1_000_000;
+            String perValidDrawing = this.validDrawings == 0 ? "no valid drawing"
+                    : String.format("%.2f attempts, %.0f tokens and %.0fms", this.getAttemptsPerValidDrawing(),
+                    this.getTokensPerValidDrawing(), (double) millis / this.validDrawings) + " per valid drawing";
+            return this.validDrawings + " of " + this.drawings + " drawings valid, "
+                    + this.attempts + " attempts, " + this.tokens + " tokens, " + millis + "ms in all; "
+                    + perValidDrawing + ", " + this.maxElapsedNanos / 1_000_000 + "ms at most for one drawing";
+        }
+    }
+
+    private final OllamaClient client;
+    private final String system;
+    private int maxAttempts = 3;
+    private int maxTokens = 65536;
+    private final Stats stats = new Stats();
+
+    /**
+     * @param client calls Ollama
+     * @param system the system prompt
+     */
+    public OllamaPaintValidator(OllamaClient client, String system) {
+        this.client = client;
+        this.system = system;
+    }
+
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts the most responses to generate for one drawing, at least 1
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public int getMaxTokens() {
+        return this.maxTokens;
+    }
+
+    /**
+     * @param maxTokens once the prompts and responses of a drawing have taken this many tokens, no more are generated
+     */
+    public void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * @return the outcomes of the drawings generated so far, added up
+     */
+    public synchronized Stats getStats() {
+        return new Stats(this.stats);
+    }
+
+    /**
+     * Generate a Paint Save File in response to prompt.
+     *
+     * @param prompt
+     * @return the valid file generated, or, if none was, the last response and its error
+     * @throws IOException          if Ollama could not be called
+     * @throws InterruptedException if interrupted while waiting for Ollama
+     */
+    public Outcome generate(String prompt) throws IOException, InterruptedException {
+        return this.generate(prompt, null);
+    }
+
+    /**
+     * Generate a Paint Save File in response to prompt.
+     *
+     * @param prompt
+     * @param sample names this sample of the files generated for prompt, see OllamaClient.generate, or null
+     * @return the valid file generated, or, if none was, the last response and its error
+     * @throws IOException          if Ollama could not be called
+     * @throws InterruptedException if interrupted while waiting for Ollama
+     */
+    public Outcome generate(String prompt, String sample) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        String request = prompt;
+        String text;
+        String errorMessage;
+        int attempts = 0, tokens = 0;
+        while (true) {
+            OllamaClient.Generation generation = this.client.generate(this.system, request, null, sample, false);
+            attempts++;
+            tokens += Math.max(0, generation.getPromptTokens()) + Math.max(0, generation.getResponseTokens());
+            text = OllamaPaint.postProcess(generation.getText());
+
+            PaintFileParser parser = new PaintFileParser();
+            if (parser.parse(new BufferedReader(new StringReader(text)))) {
+                if (generation.getAttempts() > 0) this.client.cache(this.system, request, sample, generation);
+                errorMessage = null;
+                break;
+            }
+            errorMessage = parser.getErrorMessage();
+            Trace.info("Attempt " + attempts + " is not a valid Paint Save File: " + errorMessage);
+            if (attempts >= this.maxAttempts || tokens >= this.maxTokens) break;
+            request = prompt + "\n\nYour last response was not a valid Paint Save File:\n\n" + text
+                    + "\n\n" + errorMessage + ", which is \"" + line(text, parser.getLineNumber()) + "\"."
+                    + "\nRespond with the whole Paint Save File again, with that corrected.";
+        }
+        Outcome outcome = new Outcome(text, errorMessage, attempts, tokens, System.nanoTime() - start);
+        synchronized (this) {
+            this.stats.add(outcome);
+        }
+        return outcome;
+    }
+
+    /**
+     * @return line lineNumber of text, counting the lines that are not empty as PaintFileParser does,
+     * or "" if there are not that many
+     */
+    static String line(String text, int lineNumber) {
+        return text.lines().filter(line -> !line.isEmpty()).skip(Math.max(0, lineNumber - 1))
+                .findFirst().map(String::strip).orElse("");
+    }
+}
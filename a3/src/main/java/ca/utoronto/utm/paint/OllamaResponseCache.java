@@ -0,0 +1,216 @@
+package ca.utoronto.utm.paint;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Remembers the responses of Ollama, so asking the same thing again answers
+ * at once rather than generating the response again.
+ *
+ * A response is found by the SHA-256 hash of its request, which holds the
+ * model, its options, the system prompt and the prompt, so a change to any
+ * of them is a different request. The responses used most recently are
+ * kept in memory, up to maxBytes of text; the least recently used go first.
+ * With a directory, each response is also stored there, in a file named by
+ * its hash, so the responses outlive the program; the directory is not
+ * bounded, and can be deleted to empty it. May be used from several threads at once.
+ */
+public class OllamaResponseCache {
+    /**
+     * Where inHomeDirectory stores responses
+     */
+    static final Path HOME_DIRECTORY = Paths.get(System.getProperty("user.home"), ".paint-ollama-cache");
+
+    private final long maxBytes;
+    private final Path directory;
+    private LinkedHashMap<String, OllamaClient.Generation> responses =
+            new LinkedHashMap<String, OllamaClient.Generation>(16, 0.75f, true); // least recently used first
+    private long bytes = 0;
+    private long hits = 0, diskHits = 0, misses = 0;
+
+    /**
+     * @param maxBytes  the most text to keep in memory, in bytes, counting two a char
+     * @param directory where to store the responses, or null to keep them in memory only
+     */
+    public OllamaResponseCache(long maxBytes, Path directory) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    /**
+     * @param maxBytes the most text to keep in memory
+     * @return a cache storing responses in HOME_DIRECTORY
+     */
+    public static OllamaResponseCache inHomeDirectory(long maxBytes) {
+        return new OllamaResponseCache(maxBytes, HOME_DIRECTORY);
+    }
+
+    /**
+     * @param request the body of the request
+     * @return the key of the response to request, the hex of its SHA-256 hash
+     */
+    static String key(String request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(request.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every Java has SHA-256
+        }
+    }
+
+    private static long sizeOf(OllamaClient.Generation generation) {
+        return 2L * generation.getText().length();
+    }
+
+    /**
+     * @param key
+     * @return the response with key, or null if there is none
+     */
+    public OllamaClient.Generation get(String key) {
+        synchronized (this) {
+            OllamaClient.Generation generation = this.responses.get(key);
+            if (generation != null) {
+                this.hits++;
+                return generation;
+            }
+        }
+        OllamaClient.Generation generation = this.read(key);
+        synchronized (this) {
+            if (generation == null) {
+                this.misses++;
+                return null;
+            }
+            this.hits++;
+            this.diskHits++;
+            this.remember(key, generation);
+        }
+        return generation;
+    }
+
+    /**
+     * Remember generation as the response with key.
+     *
+     * @param key
+     * @param generation
+     */
+    public void put(String key, OllamaClient.Generation generation) {
+        generation = new OllamaClient.Generation(generation.getText(), generation.getPromptTokens(),
+                generation.getResponseTokens(), 0); // no requests are made to get it again
+        synchronized (this) {
+            this.remember(key, generation);
+        }
+        this.write(key, generation);
+    }
+
+    private void remember(String key, OllamaClient.Generation generation) {
+        OllamaClient.Generation replaced = this.responses.put(key, generation);
+        if (replaced != null) this.bytes -= sizeOf(replaced);
+        this.bytes += sizeOf(generation);
+        Iterator<OllamaClient.Generation> leastRecentlyUsed = this.responses.values().iterator();
+        while (this.bytes > this.maxBytes && leastRecentlyUsed.hasNext()) {
+            this.bytes -= sizeOf(leastRecentlyUsed.next());
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    private OllamaClient.Generation read(String key) {
+        if (this.directory == null) return null;
+        try {
+            String json = Files.readString(this.directory.resolve(key + ".json"), StandardCharsets.UTF_8);
+            JSONObject stored = new JSONObject(json);
+            return new OllamaClient.Generation(stored.getString("response"), stored.optInt("prompt_eval_count", -1),
+                    stored.optInt("eval_count", -1), 0);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | JSONException e) {
+            Trace.error("Failed to read cached response " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void write(String key, OllamaClient.Generation generation) {
+        if (this.directory == null) return;
+        JSONObject stored = new JSONObject();
+        stored.put("response", generation.getText());
+        stored.put("prompt_eval_count", generation.getPromptTokens());
+        stored.put("eval_count", generation.getResponseTokens());
+        byte[] json = stored.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            Files.createDirectories(this.directory);
+            AtomicFile.write(this.directory.resolve(key + ".json"), out -> out.write(json));
+        } catch (IOException e) {
+            Trace.error("Failed to cache response " + key + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget every response, in memory and in the directory.
+     */
+    public void clear() {
+        synchronized (this) {
+            this.responses.clear();
+            this.bytes = 0;
+        }
+        if (this.directory == null) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "*.json")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing stored
+        } catch (IOException e) {
+            Trace.error("Failed to clear " + this.directory + ": " + e.getMessage());
+        }
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return the bytes of text kept in memory
+     */
+    public synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    /**
+     * @return the number of responses found, in memory or in the directory
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of responses found in the directory but not in memory
+     */
+    public synchronized long getDiskHits() {
+        return this.diskHits;
+    }
+
+    /**
+     * @return the number of responses not found
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.hits + " hits (" + this.diskHits + " on disk), " + this.misses + " misses, "
+                + this.responses.size() + " responses in memory, " + this.bytes + " bytes";
+    }
+}
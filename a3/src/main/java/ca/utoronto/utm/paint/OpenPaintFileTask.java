@@ -0,0 +1,38 @@
+package ca.utoronto.utm.paint;
+
+import java.io.File;
+import java.io.IOException;
+
+import javafx.concurrent.Task;
+
+/**
+ * Parses a file into a new PaintModel in the background. Progress is the
+ * number of bytes parsed. The task fails, with the error message of the
+ * parser, if the file is not a valid Paint Save File. Cancelling it stops
+ * the parse.
+ */
+class OpenPaintFileTask extends Task<PaintModel> {
+    private final File file;
+    private final PaintFileParser parser = new PaintFileParser();
+
+    OpenPaintFileTask(File file) {
+        this.file = file;
+        this.parser.setParallelism(Runtime.getRuntime().availableProcessors());
+        this.parser.setProgressListener(this::updateProgress);
+    }
+
+    @Override
+    protected PaintModel call() throws IOException {
+        PaintModel paintModel = new PaintModel();
+        if (!this.parser.parse(this.file, paintModel)) {
+            throw new IOException(this.parser.getErrorMessage());
+        }
+        return paintModel;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        this.parser.cancel();
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
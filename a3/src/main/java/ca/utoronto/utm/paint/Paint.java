@@ -1,12 +1,24 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
 import javafx.application.Application;
 import javafx.stage.Stage;
 
 public class Paint extends Application {
 
+    /**
+     * Where the drawing is autosaved, to be recovered if the program does not exit normally
+     */
+    static final Path AUTOSAVE_FILE = Paths.get(System.getProperty("user.home"), ".paint-autosave.journal");
+
     PaintModel model; // Model
     View view; // View + Controller
+    AutosaveJournal autosave;
 
     public static void main(String[] args) {
         launch(args);
@@ -15,9 +27,60 @@ public class Paint extends Application {
     @Override
     public void start(Stage stage) throws Exception {
 
-        this.model = new PaintModel();
+        this.autosave = lockAutosave();
+        if (this.autosave != null) {
+            this.model = recoverAutosave();
+        }
+        if (this.model == null) {
+            this.model = new PaintModel();
+        }
 
         // View + Controller
-        this.view = new View(model, stage);
+        this.view = new View(model, stage, autosave);
+    }
+
+    @Override
+    public void stop() {
+        if (this.autosave != null) {
+            this.autosave.close(true); // exited normally, nothing to recover
+        }
+    }
+
+    /**
+     * @return the journal at AUTOSAVE_FILE, locked, or null if another Paint is autosaving there
+     */
+    private static AutosaveJournal lockAutosave() {
+        AutosaveJournal autosave = new AutosaveJournal(AUTOSAVE_FILE);
+        try {
+            if (autosave.tryLock()) return autosave;
+            Trace.info("Another Paint is autosaving, so this one does not.");
+        } catch (IOException e) {
+            Trace.error("Failed to lock " + AUTOSAVE_FILE + ", so not autosaving: " + e.getMessage());
+        }
+        autosave.close(false);
+        return null;
+    }
+
+    /**
+     * @return the drawing autosaved when the program last ran, if it did not exit normally, or null
+     */
+    private static PaintModel recoverAutosave() {
+        try {
+            PaintModel recovered = AutosaveJournal.recover(AUTOSAVE_FILE);
+            if (recovered != null) {
+                Trace.info("Recovered autosaved drawing.");
+            }
+            return recovered;
+        } catch (IOException e) {
+            Trace.error("Failed to recover autosaved drawing: " + e.getMessage());
+            try {
+                // Keep it from being replaced by the autosave of the new drawing
+                Files.move(AUTOSAVE_FILE, AUTOSAVE_FILE.resolveSibling(AUTOSAVE_FILE.getFileName() + ".bad"),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException moveFailed) {
+                Trace.error("Failed to move " + AUTOSAVE_FILE + ": " + moveFailed.getMessage());
+            }
+            return null;
+        }
     }
 }
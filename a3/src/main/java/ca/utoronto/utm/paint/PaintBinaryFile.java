@@ -0,0 +1,170 @@
+package ca.utoronto.utm.paint;
+
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The binary Paint Save File format, a compact alternative to Version 1.0
+ * of the text format, holding the same shapes. A file is
+ *
+ * <pre>
+ * header: the 4 bytes PSFB, then the version byte 1
+ * shapes: each a tag byte (1 Circle, 2 Rectangle, 3 Squiggle, 4 Polyline),
+ *         the style as 4 bytes (red, green, blue, then 1 if filled else 0)
+ *         and then its values:
+ *           Circle: center x, center y, radius
+ *           Rectangle: p1 x, p1 y, p2 x, p2 y
+ *           Squiggle, Polyline: the number of points, then the x and y of the
+ *                               first point, and of each later point less the
+ *                               x and y of the point before it
+ * end: the tag byte 0
+ * </pre>
+ *
+ * All values are ints written as zigzag varints: 7 bits per byte, low bits
+ * first, the top bit set on all but the last byte, with small negative
+ * values mapped to small positive ones. A point of a freehand squiggle
+ * usually takes 2 bytes, rather than about 20 in the text format.
+ *
+ * Files in this format are read by PaintBinaryFileParser, or by
+ * PaintFileParser.parse(File, ...) which recognizes the header.
+ */
+public final class PaintBinaryFile {
+    static final byte[] MAGIC = {'P', 'S', 'F', 'B'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = MAGIC.length + 1;
+
+    static final int END = 0;
+    static final int CIRCLE = 1;
+    static final int RECTANGLE = 2;
+    static final int SQUIGGLE = 3;
+    static final int POLYLINE = 4;
+
+    /**
+     * Files with this extension are saved in this format
+     */
+    public static final String EXTENSION = ".pssb";
+
+    private PaintBinaryFile() {
+    }
+
+    /**
+     * @param buffer
+     * @return whether buffer, from its position, starts with the header of this format
+     */
+    public static boolean isBinary(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write paintModel to out in this format. out is not closed.
+     *
+     * @param out
+     * @param paintModel
+     * @throws IOException
+     */
+    public static void save(OutputStream out, PaintModel paintModel) throws IOException {
+        save(out, paintModel.getCommands());
+    }
+
+    /**
+     * Write commands to out in this format. out is not closed.
+     *
+     * @param out
+     * @param commands
+     * @throws IOException
+     */
+    public static void save(OutputStream out, List<? extends PaintCommand> commands) throws IOException {
+        Writer writer = new Writer(out);
+        writer.bytes(MAGIC);
+        writer.write(VERSION);
+        for (PaintCommand command : commands) {
+            writer.command(command);
+        }
+        writer.write(END);
+        writer.flush();
+    }
+
+    /**
+     * Buffers the encoded bytes, so each is not a separate write to out.
+     */
+    private static class Writer {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[1 << 16];
+        private int count = 0;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(int b) throws IOException {
+            if (this.count == this.buffer.length) this.flush();
+            this.buffer[this.count++] = (byte) b;
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            for (byte b : bytes) this.write(b);
+        }
+
+        void flush() throws IOException {
+            this.out.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+
+        /**
+         * Write value as a zigzag varint.
+         */
+        void value(int value) throws IOException {
+            int v = (value << 1) ^ (value >> 31);
+            while ((v & ~0x7f) != 0) {
+                this.write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            this.write(v);
+        }
+
+        void style(PaintCommand command) throws IOException {
+            Color color = command.getColor();
+            this.write((int) Math.round(color.getRed() * 255));
+            this.write((int) Math.round(color.getGreen() * 255));
+            this.write((int) Math.round(color.getBlue() * 255));
+            this.write(command.isFill() ? 1 : 0);
+        }
+
+        void command(PaintCommand command) throws IOException {
+            if (command instanceof CircleCommand circle) {
+                this.write(CIRCLE);
+                this.style(circle);
+                this.value(circle.getCentre().x);
+                this.value(circle.getCentre().y);
+                this.value(circle.getRadius());
+            } else if (command instanceof RectangleCommand rectangle) {
+                this.write(RECTANGLE);
+                this.style(rectangle);
+                this.value(rectangle.getP1().x);
+                this.value(rectangle.getP1().y);
+                this.value(rectangle.getP2().x);
+                this.value(rectangle.getP2().y);
+            } else if (command instanceof SquiggleCommand squiggle) {
+                this.write(squiggle instanceof PolylineCommand ? POLYLINE : SQUIGGLE);
+                this.style(squiggle);
+                PointList points = squiggle.getPoints();
+                this.value(points.size());
+                int x = 0, y = 0;
+                for (int i = 0; i < points.size(); i++) {
+                    this.value(points.getX(i) - x);
+                    this.value(points.getY(i) - y);
+                    x = points.getX(i);
+                    y = points.getY(i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ca.utoronto.utm.paint;
+
+import javafx.scene.paint.Color;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parse a file in the binary Paint Save File format described in
+ * PaintBinaryFile. Like PaintFileParser, an instance passes each command to
+ * a PaintCommandListener as soon as it has been read, and after an
+ * unsuccessful parse stores a message describing the error, including the
+ * offset of the byte where it was found.
+ */
+public class PaintBinaryFileParser {
+    private String errorMessage = ""; // error encountered during parse
+    private ByteBuffer buffer;
+    private int shapeStart; // offset of the shape being read
+    private int shapeNumber; // of the shape being read, counting from 1
+
+    /**
+     * Thrown when the bytes of a shape do not make sense, such as when they run out.
+     */
+    private static class MalformedShape extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedShape(String msg) {
+            super(msg, null, false, false);
+        }
+    }
+
+    private void error(String msg) {
+        this.errorMessage = "Error at byte " + this.shapeStart + " " + msg;
+    }
+
+    /**
+     * @return the error message resulting from an unsuccessful parse
+     */
+    public String getErrorMessage() {
+        return this.errorMessage;
+    }
+
+    /**
+     * Parse buffer, from its position to its limit, adding the commands to paintModel.
+     *
+     * @param buffer
+     * @param paintModel
+     * @return whether the complete file was successfully parsed
+     */
+    public boolean parse(ByteBuffer buffer, PaintModel paintModel) {
+        return this.parse(buffer, (PaintCommandListener) paintModel::addCommand);
+    }
+
+    /**
+     * Parse buffer, from its position to its limit, passing each command to listener.
+     *
+     * @param buffer
+     * @param listener receives the commands, in file order
+     * @return whether the complete file was successfully parsed
+     */
+    public boolean parse(ByteBuffer buffer, PaintCommandListener listener) {
+        this.buffer = buffer.duplicate();
+        this.errorMessage = "";
+        this.shapeStart = 0;
+        this.shapeNumber = 0;
+        try {
+            if (!PaintBinaryFile.isBinary(this.buffer) || this.buffer.remaining() < PaintBinaryFile.HEADER_SIZE) {
+                error("Expected Start of binary Paint Save File");
+                return false;
+            }
+            this.buffer.position(this.buffer.position() + PaintBinaryFile.MAGIC.length);
+            int version = this.buffer.get();
+            if (version != PaintBinaryFile.VERSION) {
+                error("Unsupported binary Paint Save File version " + version);
+                return false;
+            }
+            while (true) {
+                this.shapeStart = this.buffer.position();
+                this.shapeNumber++;
+                int tag = this.readByte();
+                if (tag == PaintBinaryFile.END) break;
+                PaintCommand command = this.readShape(tag);
+                if (command == null) return false;
+                listener.commandParsed(command);
+            }
+            if (this.buffer.hasRemaining()) {
+                this.shapeStart = this.buffer.position();
+                error("Extra content after End of File");
+                return false;
+            }
+            return true;
+        } catch (MalformedShape e) {
+            error(e.getMessage());
+            return false;
+        } catch (RuntimeException e) {
+            // Such as from a command refusing its values, or from the listener
+            String msg = e.getMessage() != null ? e.getMessage() : e.toString();
+            error("Invalid shape " + this.shapeNumber + ": " + msg);
+            return false;
+        } finally {
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * @param tag
+     * @return the shape tagged tag, or null if tag is unknown
+     */
+    private PaintCommand readShape(int tag) {
+        switch (tag) {
+            case PaintBinaryFile.CIRCLE:
+                CircleCommand circleCommand = new CircleCommand(null, 0);
+                this.readStyle(circleCommand);
+                circleCommand.setCentre(new Point(this.readValue(), this.readValue()));
+                int radius = this.readValue();
+                if (radius < 0) throw new MalformedShape("Malformed radius");
+                circleCommand.setRadius(radius);
+                return circleCommand;
+            case PaintBinaryFile.RECTANGLE:
+                RectangleCommand rectangleCommand = new RectangleCommand(null, null);
+                this.readStyle(rectangleCommand);
+                rectangleCommand.setP1(new Point(this.readValue(), this.readValue()));
+                rectangleCommand.setP2(new Point(this.readValue(), this.readValue()));
+                return rectangleCommand;
+            case PaintBinaryFile.SQUIGGLE:
+            case PaintBinaryFile.POLYLINE:
+                SquiggleCommand squiggleCommand = (tag == PaintBinaryFile.SQUIGGLE) ? new SquiggleCommand() : new PolylineCommand();
+                this.readStyle(squiggleCommand);
+                int n = this.readValue();
+                if (n < 0) throw new MalformedShape("Malformed number of points");
+                int x = 0, y = 0;
+                for (int i = 0; i < n; i++) {
+                    x += this.readValue();
+                    y += this.readValue();
+                    squiggleCommand.add(x, y);
+                }
+                return squiggleCommand;
+            default:
+                error("Expected Start of Shape or End Paint Save File");
+                return null;
+        }
+    }
+
+    private int readByte() {
+        if (!this.buffer.hasRemaining()) throw new MalformedShape("Unexpected end of file");
+        return this.buffer.get() & 0xff;
+    }
+
+    private void readStyle(PaintCommand command) {
+        int r = this.readByte(), g = this.readByte(), b = this.readByte();
+        command.setColor(Color.rgb(r, g, b));
+        command.setFill(this.readByte() != 0);
+    }
+
+    /**
+     * @return the next zigzag varint
+     */
+    private int readValue() {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = this.readByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new MalformedShape("Malformed number");
+    }
+}
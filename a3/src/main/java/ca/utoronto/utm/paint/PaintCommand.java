@@ -1,13 +1,17 @@
 package ca.utoronto.utm.paint;
 
-import java.util.Observable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
-public abstract class PaintCommand extends Observable implements PaintSaveFileSavable {
+public abstract class PaintCommand implements PaintSaveFileSavable {
     private Color color;
     private boolean fill;
+    private PaintModel model; // the model this was added to, told when this changes
 
     PaintCommand() {
         // Pick a random color for this
@@ -24,7 +28,9 @@ public abstract class PaintCommand extends Observable implements PaintSaveFileSa
     }
 
     public void setColor(Color color) {
+        this.changing();
         this.color = color;
+        this.changed();
     }
 
     public boolean isFill() {
@@ -32,24 +38,146 @@ public abstract class PaintCommand extends Observable implements PaintSaveFileSa
     }
 
     public void setFill(boolean fill) {
+        this.changing();
         this.fill = fill;
+        this.changed();
     }
 
     public String toString() {
-        double r = this.color.getRed();
-        double g = this.color.getGreen();
-        double b = this.color.getBlue();
+        return written(writer -> {
+            writer.write('\t');
+            this.writeStyle(writer);
+        });
+    }
+
+    /**
+     * Write the color and filled lines shared by the blocks of every shape.
+     * The color line is not indented, as the blocks have always been saved;
+     * toString indents it.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    protected void writeStyle(PaintSaveFileWriter writer) throws IOException {
+        writer.write("color:").writeInt((int) Math.round(this.color.getRed() * 255))
+                .write(',').writeInt((int) Math.round(this.color.getGreen() * 255))
+                .write(',').writeInt((int) Math.round(this.color.getBlue() * 255)).write('\n');
+        writer.write("\tfilled:").write(this.fill ? "true" : "false").write('\n');
+    }
+
+    /**
+     * Something written by a PaintSaveFileWriter
+     */
+    private interface Writing {
+        public void writeTo(PaintSaveFileWriter writer) throws IOException;
+    }
+
+    private static String written(Writing writing) {
+        StringWriter s = new StringWriter();
+        try {
+            PaintSaveFileWriter writer = new PaintSaveFileWriter(s);
+            writing.writeTo(writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by a StringWriter
+        }
+        return s.toString();
+    }
+
+    void setModel(PaintModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Called by subclasses just before they change what execute draws, so the
+     * history of the model, if any, can record the state being changed.
+     */
+    protected void changing() {
+        if (this.model != null) {
+            this.model.commandChanging(this);
+        }
+    }
 
-        String s = "";
-        s += "\tcolor:" + (int) Math.round(r * 255) + "," + (int) Math.round(g * 255) + "," + (int) Math.round(b * 255) + "\n";
-        s += "\tfilled:" + this.fill + "\n";
-        return s;
+    /**
+     * Called by subclasses after they change what execute draws.
+     */
+    protected void changed() {
+        if (this.model != null) {
+            this.model.commandChanged(this);
+        }
+    }
+
+    /**
+     * Record the state of this, before it is changed. The returned Change
+     * records the state of this again when it is finished, and can then put
+     * this back in either state.
+     *
+     * @return a Change from the current state of this
+     */
+    abstract UndoHistory.Change startChange();
+
+    /**
+     * @return a new command, in no model, that draws and is saved as this now
+     * is, so it can be read on another thread while this goes on changing
+     */
+    abstract PaintCommand copy();
+
+    /**
+     * @param copy
+     * @return copy, given the color and fill of this
+     */
+    <T extends PaintCommand> T copyStyleTo(T copy) {
+        PaintCommand command = copy;
+        command.color = this.color;
+        command.fill = this.fill;
+        return copy;
+    }
+
+    /**
+     * A Change to the color and fill of this, extended by each kind of
+     * command to cover the rest of what it draws.
+     */
+    abstract class StyleChange implements UndoHistory.Change {
+        private final Color oldColor = color;
+        private final boolean oldFill = fill;
+        private Color newColor;
+        private boolean newFill;
+
+        @Override
+        public boolean finish() {
+            this.newColor = color;
+            this.newFill = fill;
+            return !this.oldColor.equals(this.newColor) || this.oldFill != this.newFill;
+        }
+
+        @Override
+        public void undo() {
+            setColor(this.oldColor);
+            setFill(this.oldFill);
+        }
+
+        @Override
+        public void redo() {
+            setColor(this.newColor);
+            setFill(this.newFill);
+        }
+
+        @Override
+        public long size() {
+            return UndoHistory.EDIT_SIZE;
+        }
     }
 
     public abstract void execute(GraphicsContext g);
 
+    /**
+     * @return the region execute draws within, ignoring the width of strokes,
+     * or null if this draws nothing
+     */
+    public abstract Rectangle2D getBounds();
+
     @Override
     public String getPaintSaveFileString() {
-        return this.toString();  // return the default toString() behaviour; can be overwritten
+        return written(this::writePaintSaveFile);
     }
 }
@@ -0,0 +1,9 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * Receives the PaintCommands of a Paint Save File from PaintFileParser,
+ * each one as soon as the line ending its shape has been read.
+ */
+public interface PaintCommandListener {
+    public void commandParsed(PaintCommand command);
+}
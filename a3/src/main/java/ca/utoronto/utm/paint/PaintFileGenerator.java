@@ -0,0 +1,516 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javafx.scene.paint.Color;
+
+/**
+ * Generates synthetic drawings: a number of circles, rectangles, squiggles
+ * and polylines, in a shuffled order, with random positions, sizes and
+ * styles. Squiggles are random walks, as if drawn by hand; polylines jump
+ * between random points. The same seed and counts always give the same
+ * drawing, so it can be used to compare performance between versions.
+ *
+ * The file written can also be varied, using the whitespace the format
+ * ignores, without changing the drawing it holds, and can be corrupted so
+ * that parsing it fails with a chosen Failure, at a known line. Variations
+ * and corruptions are seeded too, separately from the drawing.
+ */
+public class PaintFileGenerator {
+    /**
+     * The whitespace a file is written with. Each holds the same drawing.
+     */
+    public enum Whitespace {
+        /**
+         * As PaintModel.save writes it
+         */
+        CANONICAL,
+        /**
+         * With spaces and tabs at the start and end of lines and between
+         * their characters, though not between digits
+         */
+        SPACES,
+        /**
+         * With empty lines between lines
+         */
+        BLANK_LINES,
+        /**
+         * With all of the whitespace the format allows: that of SPACES and
+         * BLANK_LINES, vertical tabs and form feeds, and lines ending in
+         * "\r\n" or "\r"
+         */
+        MIXED
+    }
+
+    /**
+     * The ways parsing a file can fail, one for each error of the finite
+     * state machine of PaintFileParser.
+     */
+    public enum Failure {
+        FILE_START(-1, "Expected Start of Paint Save File"),
+        SHAPE_START(-1, "Expected Start of Shape or End Paint Save File"),
+        CIRCLE_COLOR(CIRCLE, "Expected Circle color"),
+        CIRCLE_FILLED(CIRCLE, "Expected Circle filled"),
+        CIRCLE_CENTER(CIRCLE, "Expected Circle center"),
+        CIRCLE_RADIUS(CIRCLE, "Expected Circle Radius"),
+        CIRCLE_END(CIRCLE, "Expected End Circle"),
+        RECTANGLE_COLOR(RECTANGLE, "Expected Rectangle color"),
+        RECTANGLE_FILLED(RECTANGLE, "Expected Rectangle filled"),
+        RECTANGLE_P1(RECTANGLE, "Expected Rectangle p1"),
+        RECTANGLE_P2(RECTANGLE, "Expected Rectangle p2"),
+        RECTANGLE_END(RECTANGLE, "Expected End Rectangle"),
+        SQUIGGLE_COLOR(SQUIGGLE, "Expected Squiggle color"),
+        SQUIGGLE_FILLED(SQUIGGLE, "Expected Squiggle filled"),
+        SQUIGGLE_POINTS(SQUIGGLE, "Expected Squiggle points"),
+        SQUIGGLE_POINT(SQUIGGLE, "Expected Squiggle point or end points"),
+        SQUIGGLE_END(SQUIGGLE, "Expected End Squiggle"),
+        POLYLINE_COLOR(POLYLINE, "Expected Polyline color"),
+        POLYLINE_FILLED(POLYLINE, "Expected Polyline filled"),
+        POLYLINE_POINTS(POLYLINE, "Expected Polyline points"),
+        POLYLINE_POINT(POLYLINE, "Expected Polyline point or end points"),
+        POLYLINE_END(POLYLINE, "Expected End Polyline"),
+        EXTRA_CONTENT(-1, "Extra content after End of File"),
+        END_OF_FILE(-1, "Unexpected end of file");
+
+        private final int kind; // of the shape corrupted, or -1 if not a shape's
+        private final String message;
+
+        Failure(int kind, String message) {
+            this.kind = kind;
+            this.message = message;
+        }
+
+        /**
+         * @return the error message of the parser, without the line number
+         */
+        public String getMessage() {
+            return this.message;
+        }
+    }
+
+    // The kinds of shape
+    private static final int CIRCLE = 0, RECTANGLE = 1, SQUIGGLE = 2, POLYLINE = 3;
+
+    /**
+     * The drawings fit within a square this wide
+     */
+    public static final int SIZE = 1000;
+
+    /**
+     * The lines of a circle or rectangle block, and those of a squiggle or
+     * polyline block besides its points
+     */
+    static final int SHAPE_LINES = 6;
+
+    private final long seed;
+    private int circles = 0;
+    private int rectangles = 0;
+    private int squiggles = 0;
+    private int polylines = 0;
+    private int points = 0; // of each squiggle and polyline
+    private Whitespace whitespace = Whitespace.CANONICAL;
+    private Failure failure; // made to happen by the file written, if any
+
+    public PaintFileGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * A generator of a file of about lines lines, which are mostly points:
+     * per circle and rectangle, one squiggle and one polyline of 100 points.
+     *
+     * @param lines at least 2
+     * @param seed
+     * @return the generator
+     */
+    public static PaintFileGenerator ofLines(long lines, long seed) {
+        PaintFileGenerator generator = new PaintFileGenerator(seed);
+        int points = 100;
+        long group = 4 * SHAPE_LINES + 2 * points;
+        long groups = (lines - 2) / group;
+        long circles = groups + (lines - 2 - groups * group) / SHAPE_LINES; // circles make up the rest
+        generator.setCircles(Math.toIntExact(circles));
+        generator.setRectangles(Math.toIntExact(groups));
+        generator.setSquiggles(Math.toIntExact(groups));
+        generator.setPolylines(Math.toIntExact(groups));
+        generator.setPoints(points);
+        return generator;
+    }
+
+    public long getSeed() {
+        return this.seed;
+    }
+
+    public int getCircles() {
+        return this.circles;
+    }
+
+    public void setCircles(int circles) {
+        this.circles = circles;
+    }
+
+    public int getRectangles() {
+        return this.rectangles;
+    }
+
+    public void setRectangles(int rectangles) {
+        this.rectangles = rectangles;
+    }
+
+    public int getSquiggles() {
+        return this.squiggles;
+    }
+
+    public void setSquiggles(int squiggles) {
+        this.squiggles = squiggles;
+    }
+
+    public int getPolylines() {
+        return this.polylines;
+    }
+
+    public void setPolylines(int polylines) {
+        this.polylines = polylines;
+    }
+
+    public int getPoints() {
+        return this.points;
+    }
+
+    /**
+     * @param points the number of points in each squiggle and polyline
+     */
+    public void setPoints(int points) {
+        this.points = points;
+    }
+
+    public Whitespace getWhitespace() {
+        return this.whitespace;
+    }
+
+    public void setWhitespace(Whitespace whitespace) {
+        this.whitespace = whitespace;
+    }
+
+    public Failure getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * @param failure to corrupt the file written so that parsing it fails
+     *                with failure, or null to write a valid file
+     */
+    public void setFailure(Failure failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * @return the number of lines in the Paint Save File of the drawing,
+     * not counting empty lines or any corruption
+     */
+    public long getLineCount() {
+        long shapes = (long) this.circles + this.rectangles + this.squiggles + this.polylines;
+        return 2 + SHAPE_LINES * shapes + (long) this.points * (this.squiggles + this.polylines);
+    }
+
+    /**
+     * Receives the commands of the drawing as they are generated.
+     */
+    private interface Generated {
+        public void command(PaintCommand command) throws IOException;
+    }
+
+    /**
+     * @return the commands of the drawing, in the order they are drawn
+     */
+    public List<PaintCommand> generateCommands() {
+        ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>();
+        try {
+            this.generate(commands::add);
+        } catch (IOException e) {
+            throw new AssertionError(e); // not thrown by add
+        }
+        return commands;
+    }
+
+    private void generate(Generated generated) throws IOException {
+        Random random = new Random(this.seed);
+        this.generate(this.kinds(random), random, generated);
+    }
+
+    /**
+     * @return the kind of each shape of the drawing, in order
+     */
+    private byte[] kinds(Random random) {
+        byte[] kinds = new byte[this.circles + this.rectangles + this.squiggles + this.polylines];
+        int[] counts = {this.circles, this.rectangles, this.squiggles, this.polylines};
+        int n = 0;
+        for (int kind = 0; kind < counts.length; kind++) {
+            for (int i = 0; i < counts[kind]; i++) {
+                kinds[n++] = (byte) kind;
+            }
+        }
+        for (int i = kinds.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte kind = kinds[i];
+            kinds[i] = kinds[j];
+            kinds[j] = kind;
+        }
+        return kinds;
+    }
+
+    private void generate(byte[] kinds, Random random, Generated generated) throws IOException {
+        for (byte kind : kinds) {
+            PaintCommand command = switch (kind) {
+                case CIRCLE -> new CircleCommand(randomPoint(random), 1 + random.nextInt(SIZE / 10));
+                case RECTANGLE -> new RectangleCommand(randomPoint(random), randomPoint(random));
+                case SQUIGGLE -> this.randomWalk(new SquiggleCommand(), random);
+                default -> this.randomPoints(new PolylineCommand(), random);
+            };
+            command.setColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            command.setFill(random.nextBoolean());
+            generated.command(command);
+        }
+    }
+
+    private static Point randomPoint(Random random) {
+        return new Point(random.nextInt(SIZE), random.nextInt(SIZE));
+    }
+
+    private SquiggleCommand randomWalk(SquiggleCommand squiggle, Random random) {
+        int x = random.nextInt(SIZE), y = random.nextInt(SIZE);
+        for (int i = 0; i < this.points; i++) {
+            squiggle.add(x, y);
+            x = Math.floorMod(x + random.nextInt(7) - 3, SIZE);
+            y = Math.floorMod(y + random.nextInt(7) - 3, SIZE);
+        }
+        return squiggle;
+    }
+
+    private SquiggleCommand randomPoints(SquiggleCommand polyline, Random random) {
+        for (int i = 0; i < this.points; i++) {
+            polyline.add(random.nextInt(SIZE), random.nextInt(SIZE));
+        }
+        return polyline;
+    }
+
+    /**
+     * @return a new PaintModel holding the drawing
+     */
+    public PaintModel generateModel() {
+        PaintModel model = new PaintModel();
+        for (PaintCommand command : this.generateCommands()) {
+            model.addCommand(command);
+        }
+        return model;
+    }
+
+    /**
+     * Write the drawing, as a Paint Save File, to out, with the whitespace
+     * set, and corrupted if a failure is set. The commands are generated and
+     * written one at a time, so a file of any size can be written.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException {
+        Random random = new Random(this.seed);
+        byte[] kinds = this.kinds(random);
+        Random variation = new Random(~this.seed); // leaves the drawing as it is without variations
+        long corrupted = this.failure == null ? -1 : this.corruptedLine(kinds, variation);
+        LineFormatter formatter = new LineFormatter(out, variation, corrupted);
+        PaintSaveFileWriter writer = new PaintSaveFileWriter(formatter);
+        writer.writeFileStart();
+        this.generate(kinds, random, command -> command.writePaintSaveFile(writer));
+        writer.writeFileEnd();
+        if (this.failure == Failure.EXTRA_CONTENT) {
+            writer.write("Circle\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * @return the line the parser reports the failure set at, when parsing the file written
+     */
+    public long getExpectedErrorLine() {
+        if (this.failure == null) return -1;
+        Random random = new Random(this.seed);
+        long line = this.corruptedLine(this.kinds(random), new Random(~this.seed));
+        return switch (this.failure) {
+            case EXTRA_CONTENT -> this.getLineCount() + 1;
+            case END_OF_FILE -> this.getLineCount() - 1; // the last line read
+            default -> line;
+        };
+    }
+
+    /**
+     * @return the error message the parser gives when parsing the file
+     * written, or "" if it is valid
+     */
+    public String getExpectedErrorMessage() {
+        if (this.failure == null) return "";
+        return "Error in line " + this.getExpectedErrorLine() + " " + this.failure.getMessage();
+    }
+
+    /**
+     * @param kinds     the kinds of the shapes of the drawing
+     * @param variation chooses the shape corrupted
+     * @return the line, counting from 1, that is corrupted to cause the failure set
+     */
+    private long corruptedLine(byte[] kinds, Random variation) {
+        Failure failure = this.failure;
+        if (failure == Failure.FILE_START) return 1;
+        if (failure == Failure.EXTRA_CONTENT) return -1; // a line is added instead
+        if (failure == Failure.END_OF_FILE || (failure == Failure.SHAPE_START && kinds.length == 0)) {
+            return this.getLineCount(); // End Paint Save File
+        }
+
+        // Choose a shape to corrupt, of the kind the failure is about
+        int count = 0;
+        for (byte kind : kinds) {
+            if (failure.kind == -1 || kind == failure.kind) count++;
+        }
+        if (count == 0) {
+            throw new IllegalStateException("No shape to corrupt for " + failure);
+        }
+        int chosen = variation.nextInt(count);
+        long line = 2; // where the first shape starts
+        for (byte kind : kinds) {
+            if (failure.kind == -1 || kind == failure.kind) {
+                if (chosen-- == 0) break;
+            }
+            line += kind == SQUIGGLE || kind == POLYLINE ? SHAPE_LINES + this.points : SHAPE_LINES;
+        }
+        return line + switch (failure) {
+            case SHAPE_START -> 0;
+            case CIRCLE_COLOR, RECTANGLE_COLOR, SQUIGGLE_COLOR, POLYLINE_COLOR -> 1;
+            case CIRCLE_FILLED, RECTANGLE_FILLED, SQUIGGLE_FILLED, POLYLINE_FILLED -> 2;
+            case CIRCLE_CENTER, RECTANGLE_P1, SQUIGGLE_POINTS, POLYLINE_POINTS -> 3;
+            case CIRCLE_RADIUS, RECTANGLE_P2 -> 4;
+            case CIRCLE_END, RECTANGLE_END -> 5;
+            case SQUIGGLE_POINT, POLYLINE_POINT -> 4 + this.points; // end points
+            default -> 5 + this.points; // End Squiggle or End Polyline
+        };
+    }
+
+    /**
+     * Passes the lines of a file on, adding the whitespace set, and
+     * corrupting one line: the last is dropped, for END_OF_FILE, and any
+     * other either dropped or garbled with a character never valid, so the
+     * line read in its place causes the failure.
+     */
+    private class LineFormatter extends OutputStream {
+        private static final byte[] SPACES = {' ', '\t'};
+        private static final byte[] MIXED_SPACES = {' ', '\t', '\u000B', '\f'};
+
+        private final OutputStream out;
+        private final Random random;
+        private final long corrupted;
+        private final byte[] spaces;
+        private byte[] line = new byte[256]; // the current line
+        private int length = 0;
+        private long lineNumber = 0;
+
+        LineFormatter(OutputStream out, Random random, long corrupted) {
+            this.out = out;
+            this.random = random;
+            this.corrupted = corrupted;
+            this.spaces = whitespace == Whitespace.MIXED ? MIXED_SPACES : SPACES;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                this.endLine();
+                return;
+            }
+            if (this.length == this.line.length) {
+                this.line = Arrays.copyOf(this.line, 2 * this.length);
+            }
+            this.line[this.length++] = (byte) b;
+        }
+
+        private void endLine() throws IOException {
+            this.lineNumber++;
+            if (this.lineNumber == this.corrupted) {
+                if (failure == Failure.END_OF_FILE || this.random.nextBoolean()) {
+                    this.length = 0;
+                    return; // dropped
+                }
+                int at = this.random.nextInt(this.length + 1);
+                this.writePart(this.line, 0, at);
+                this.out.write('#');
+                this.writePart(this.line, at, this.length);
+            } else {
+                this.writePart(this.line, 0, this.length);
+            }
+            this.length = 0;
+
+            this.writeLineEnd();
+            if ((whitespace == Whitespace.BLANK_LINES || whitespace == Whitespace.MIXED) && this.random.nextInt(4) == 0) {
+                this.writeLineEnd(); // an empty line
+            }
+        }
+
+        private void writeLineEnd() throws IOException {
+            if (whitespace != Whitespace.MIXED) {
+                this.out.write('\n');
+                return;
+            }
+            switch (this.random.nextInt(3)) {
+                case 0 -> this.out.write('\n');
+                case 1 -> this.out.write('\r');
+                default -> {
+                    this.out.write('\r');
+                    this.out.write('\n');
+                }
+            }
+        }
+
+        /**
+         * Write a part of the line, with whitespace between its characters,
+         * except between digits, whose value that would change.
+         */
+        private void writePart(byte[] b, int from, int to) throws IOException {
+            if (whitespace == Whitespace.CANONICAL || whitespace == Whitespace.BLANK_LINES) {
+                this.out.write(b, from, to - from);
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                boolean betweenDigits = i > 0 && Character.isDigit(b[i - 1]) && Character.isDigit(b[i]);
+                if (!betweenDigits && this.random.nextInt(8) == 0) {
+                    this.out.write(this.spaces[this.random.nextInt(this.spaces.length)]);
+                }
+                this.out.write(b[i]);
+            }
+            if (to == this.length && this.random.nextInt(8) == 0) {
+                this.out.write(this.spaces[this.random.nextInt(this.spaces.length)]); // trailing
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.out.flush();
+        }
+    }
+
+    /**
+     * Write the drawing, as a Paint Save File, to file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void write(Path file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            this.write(out);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Supplies the lines of a Paint Save File to the scanning engine of
+ * PaintFileParser, one line at a time, with all whitespace removed.
+ * Each line is copied into the reusable line buffer, so no String is
+ * created per line.
+ *
+ * Lines end at '\n', '\r' or "\r\n", exactly as BufferedReader.readLine()
+ * splits them. Empty lines are skipped, while lines holding only
+ * whitespace are returned with length 0, as the regex engine sees them.
+ */
+abstract class PaintFileLineSource {
+    char[] line = new char[256]; // the current line, whitespace removed
+    int length; // the number of characters in line
+
+    /**
+     * Advance to the next non-empty line.
+     *
+     * @return false once the input is exhausted
+     * @throws IOException
+     */
+    abstract boolean next() throws IOException;
+
+    /**
+     * @return the number of bytes, or characters, of the input read so far
+     */
+    abstract long consumed();
+
+    /**
+     * @param c
+     * @return whether c is removed from a line, as the regex \s would
+     */
+    static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\u000B' || c == '\f';
+    }
+
+    void append(char c) {
+        if (this.length == this.line.length) {
+            this.line = Arrays.copyOf(this.line, 2 * this.length);
+        }
+        this.line[this.length++] = c;
+    }
+
+    /**
+     * @param reader
+     * @return a source of the lines read from reader
+     */
+    static PaintFileLineSource of(Reader reader) {
+        return new ReaderSource(reader);
+    }
+
+    /**
+     * @param buffer an ASCII Paint Save File, such as a MappedByteBuffer
+     * @return a source of the lines between the position and limit of buffer, read in place
+     */
+    static PaintFileLineSource of(ByteBuffer buffer) {
+        return new BufferSource(buffer);
+    }
+
+    private static class BufferSource extends PaintFileLineSource {
+        private final ByteBuffer buffer;
+        private final int start;
+        private int position;
+        private final int limit;
+
+        BufferSource(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.start = buffer.position();
+            this.position = this.start;
+            this.limit = buffer.limit();
+        }
+
+        @Override
+        long consumed() {
+            return this.position - this.start;
+        }
+
+        @Override
+        boolean next() {
+            this.length = 0;
+            boolean nonEmpty = false;
+            while (this.position < this.limit) {
+                byte c = this.buffer.get(this.position++);
+                if (c == '\n' || c == '\r') {
+                    if (c == '\r' && this.position < this.limit && this.buffer.get(this.position) == '\n') {
+                        this.position++;
+                    }
+                    if (nonEmpty) return true;
+                    continue; // an empty line, skipped without being counted
+                }
+                nonEmpty = true;
+                if (!isWhitespace(c)) this.append((char) (c & 0xff));
+            }
+            return nonEmpty;
+        }
+    }
+
+    private static class ReaderSource extends PaintFileLineSource {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int position = 0, limit = 0;
+        private boolean skipLineFeed = false; // the previous line ended with '\r'
+        private long read = 0; // characters read into buffer, over all refills
+
+        ReaderSource(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        long consumed() {
+            return this.read - (this.limit - this.position);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            this.length = 0;
+            boolean nonEmpty = false;
+            while (true) {
+                if (this.position == this.limit) {
+                    this.limit = this.reader.read(this.buffer, 0, this.buffer.length);
+                    this.position = 0;
+                    if (this.limit < 0) {
+                        this.limit = 0;
+                        return nonEmpty;
+                    }
+                    this.read += this.limit;
+                    continue;
+                }
+                char c = this.buffer[this.position++];
+                if (this.skipLineFeed) {
+                    this.skipLineFeed = false;
+                    if (c == '\n') continue;
+                }
+                if (c == '\n' || c == '\r') {
+                    this.skipLineFeed = (c == '\r');
+                    if (nonEmpty) return true;
+                    continue; // an empty line, skipped without being counted
+                }
+                nonEmpty = true;
+                if (!isWhitespace(c)) this.append(c);
+            }
+        }
+    }
+}
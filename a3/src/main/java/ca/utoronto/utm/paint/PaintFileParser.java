@@ -3,8 +3,23 @@ package ca.utoronto.utm.paint;
 import javafx.scene.paint.Color;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,18 +32,83 @@ import java.util.regex.Pattern;
  * about the error. For more on the format of Version 1.0 of the paint
  * save file format, see the associated documentation.
  *
+ * Two engines implement the same finite state machine. The SCANNER engine
+ * (the default) matches keywords and parses integers directly from the
+ * characters of each line. The REGEX engine matches each line against the
+ * Patterns below; it is kept so the two can be checked against each other.
+ *
+ * Shape blocks are independent of each other, so with a parallelism above 1
+ * a large file is split at the lines starting shapes and the pieces are
+ * scanned at once on the common ForkJoinPool, their commands then being
+ * added to the PaintModel in file order.
+ *
+ * Rather than a PaintModel, a parse can be given a PaintCommandListener,
+ * which receives each command the moment the End line of its shape is
+ * matched, so files need not be held in memory to be processed.
+ *
+ * A parse can be followed with a ProgressListener, and stopped from another
+ * thread with cancel, so it can run in the background.
+ *
  * @author
  */
 public class PaintFileParser {
+    /**
+     * The ways this can recognize the lines of a Paint Save File.
+     */
+    public enum Engine {REGEX, SCANNER}
+
+    /**
+     * Told how much of a file has been parsed. It is called on the thread
+     * parsing, which for a file parsed in pieces is several at once.
+     */
+    public interface ProgressListener {
+        /**
+         * @param done  the bytes, or characters, parsed so far
+         * @param total the size of the file, or -1 if it is not known
+         */
+        public void progress(long done, long total);
+    }
+
+    /**
+     * Files are only split into pieces of at least this many bytes
+     */
+    static final int MINIMUM_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Progress is reported, and cancellation checked for, every this many lines
+     */
+    static final int PROGRESS_INTERVAL = 1 << 12;
+
     private int lineNumber = 0; // the current line being parsed
     private String errorMessage = ""; // error encountered during parse
-    private PaintModel paintModel;
+    private String errorReason = ""; // errorMessage, without the line number
+    private int parallelism = 1;
+    private PaintCommandListener listener; // receives the commands as they are parsed
+    private Engine engine = Engine.SCANNER;
+    private ProgressListener progressListener;
+    private long total = -1; // the size of the file being parsed, if known
+    private AtomicBoolean cancelled = new AtomicBoolean(false); // shared with the parsers of the pieces of a file
+
+    /**
+     * State of the SCANNER engine: the FSM state, the command being built
+     * and the current line, with the position of the next unread character.
+     */
+    private int state;
+    private CircleCommand circleCommand;
+    private RectangleCommand rectangleCommand;
+    private SquiggleCommand squiggleCommand;
+    private PolylineCommand polylineCommand;
+    private char[] line;
+    private int length, position;
+    private int value; // the integer most recently scanned
+    private int x, y; // the coordinate most recently scanned
+    private boolean overflow; // some integer scanned on this line does not fit in an int
 
     /**
      * Below are Patterns used in parsing
      */
     // File Start and End:
-    private Pattern pFileStart = Pattern.compile("^PaintSaveFileVersion1.0$");
+    private Pattern pFileStart = Pattern.compile("^PaintSaveFileVersion1\\.0$");
     private Pattern pFileEnd = Pattern.compile("^EndPaintSaveFile$");
 
     // Shared Details:
@@ -69,6 +149,7 @@ public class PaintFileParser {
      * @param msg
      */
     private void error(String msg) {
+        this.errorReason = msg;
         this.errorMessage = "Error in line " + lineNumber + " " + msg;
     }
 
@@ -79,6 +160,60 @@ public class PaintFileParser {
         return this.errorMessage;
     }
 
+    /**
+     * @return the number of the line the last parse stopped on, the line of
+     * the error if it failed, counting the lines that are not empty
+     */
+    public int getLineNumber() {
+        return this.lineNumber;
+    }
+
+    public Engine getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * Choose the engine used by later calls to parse
+     *
+     * @param engine
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @param progressListener told how much of each later parse is done, or null
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Stop the parse in progress, which then fails with the error "Parse
+     * cancelled", as will every later parse by this. May be called from any thread.
+     */
+    public void cancel() {
+        this.cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled.get();
+    }
+
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * Set the largest number of pieces parse(File, PaintModel) scans at once.
+     * With 1, the default, files are scanned sequentially.
+     *
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
     /**
      * Parse the specified file
      *
@@ -86,22 +221,64 @@ public class PaintFileParser {
      * @return
      */
     public boolean parse(String fileName) {
-        boolean retVal = false;
-        BufferedReader br = null;
-        try {
-            br = new BufferedReader(new FileReader(fileName));
-            PaintModel pm = new PaintModel();
-            retVal = this.parse(br, pm);
-        } catch (FileNotFoundException e) {
-            error("File Not Found: " + fileName);
-        } finally {
-            try {
-                br.close();
-            } catch (Exception e) {
+        return this.parse(new File(fileName), new PaintModel());
+    }
+
+    /**
+     * Parse the specified file as a Paint Save File Format file, adding its
+     * commands to paintModel. With the SCANNER engine the file is memory
+     * mapped and parsed directly from its bytes, since Paint Save Files are
+     * ASCII; the REGEX engine, and files too large to map, are read through
+     * a BufferedReader. A file starting with the header of the binary format
+     * is instead read by a PaintBinaryFileParser.
+     *
+     * @param file       the file to parse
+     * @param paintModel the paint model to add the commands to
+     * @return whether the complete file was successfully parsed
+     */
+    public boolean parse(File file, PaintModel paintModel) {
+        return this.parse(file, (PaintCommandListener) paintModel::addCommand);
+    }
+
+    /**
+     * Parse the specified file as a Paint Save File Format file, as
+     * parse(File, PaintModel) does, passing each command to listener
+     * as soon as it has been parsed.
+     *
+     * @param file     the file to parse
+     * @param listener receives the commands, in file order
+     * @return whether the complete file was successfully parsed
+     */
+    public boolean parse(File file, PaintCommandListener listener) {
+        this.lineNumber = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            this.total = size;
+            if (size <= Integer.MAX_VALUE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (PaintBinaryFile.isBinary(buffer)) {
+                    PaintBinaryFileParser binaryParser = new PaintBinaryFileParser();
+                    boolean retVal = binaryParser.parse(buffer, listener);
+                    this.errorMessage = binaryParser.getErrorMessage();
+                    return retVal;
+                }
+                if (this.engine == Engine.SCANNER) {
+                    int chunks = (int) Math.min(this.parallelism, size / MINIMUM_CHUNK_SIZE);
+                    if (chunks > 1) {
+                        return this.scanParallel(buffer, chunks, listener);
+                    }
+                    return this.scan(PaintFileLineSource.of(buffer), listener);
+                }
+            }
+            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+                return this.parseLines(br, listener);
             }
-            ;
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            error("File Not Found: " + file);
+        } catch (IOException e) {
+            error("Could not read " + file + ": " + e.getMessage());
         }
-        return retVal;
+        return false;
     }
 
     /**
@@ -126,7 +303,41 @@ public class PaintFileParser {
      * @return whether the complete file was successfully parsed
      */
     public boolean parse(BufferedReader inputStream, PaintModel paintModel) {
-        this.paintModel = paintModel;
+        return this.parse(inputStream, (PaintCommandListener) paintModel::addCommand);
+    }
+
+    /**
+     * Parse the inputStream as a Paint Save File Format file, passing each
+     * command to listener as soon as the End line of its shape is matched.
+     * Commands parsed before an error are still passed on. Whether the parse
+     * succeeds, and this.errorMessage, are as for parse(BufferedReader, PaintModel).
+     *
+     * @param inputStream the open file to parse
+     * @param listener    receives the commands, in file order
+     * @return whether the complete file was successfully parsed
+     */
+    public boolean parse(BufferedReader inputStream, PaintCommandListener listener) {
+        this.total = -1;
+        return this.parseLines(inputStream, listener);
+    }
+
+    private boolean parseLines(BufferedReader inputStream, PaintCommandListener listener) {
+        if (this.engine == Engine.REGEX) {
+            return this.parseRegex(inputStream, listener);
+        }
+        return this.scan(PaintFileLineSource.of(inputStream), listener);
+    }
+
+    /**
+     * The REGEX engine: strip each line of whitespace and match it against
+     * the Patterns expected in the current state.
+     *
+     * @param inputStream the open file to parse
+     * @param listener    receives the commands, in file order
+     * @return whether the complete file was successfully parsed
+     */
+    private boolean parseRegex(BufferedReader inputStream, PaintCommandListener listener) {
+        this.listener = listener;
         this.errorMessage = "";
 
         // During the parse, we will be building one of the
@@ -142,13 +353,18 @@ public class PaintFileParser {
             int state = 0;
             Matcher m;
             String l;
+            boolean tracing = Trace.isEnabled(Trace.Level.DEBUG);
 
             this.lineNumber = 0;
             while ((l = inputStream.readLine()) != null) {
                 if (l.isEmpty()) continue;
                 l = l.replaceAll("\\s+", "");
                 this.lineNumber++;
-                System.out.println(lineNumber + " " + l + " " + state);
+                if (this.lineNumber % PROGRESS_INTERVAL == 0 && this.cancelled.get()) {
+                    error("Parse cancelled");
+                    return false;
+                }
+                if (tracing) Trace.debug(lineNumber + " " + l + " " + state);
                 switch (state) {
                     case 0:  // Initial State: looking for file start
                         m = pFileStart.matcher(l);
@@ -248,7 +464,7 @@ public class PaintFileParser {
                         // Parsing Circle: looking for EndCircle
                         m = pCircleEnd.matcher(l);
                         if (m.matches()) {
-                            paintModel.addCommand(circleCommand);
+                            listener.commandParsed(circleCommand);
                             circleCommand = null;
                             state = 1;
                             break;
@@ -310,7 +526,7 @@ public class PaintFileParser {
                         // Parsing Rectangle: looking for EndRectangle
                         m = pRectangleEnd.matcher(l);
                         if (m.matches()) {
-                            paintModel.addCommand(rectangleCommand);
+                            listener.commandParsed(rectangleCommand);
                             rectangleCommand = null;
                             state = 1;
                             break;
@@ -330,6 +546,7 @@ public class PaintFileParser {
                             break;
                         }
                         error("Expected Squiggle color");
+                        return false;
                     case 13:
                         // Parsing Squiggle: looking for filled
                         m = pFilled.matcher(l);
@@ -356,8 +573,7 @@ public class PaintFileParser {
                         if (m.matches()) {
                             int x = Integer.parseInt(m.group(1));
                             int y = Integer.parseInt(m.group(2));
-                            Point point = new Point(x, y);
-                            squiggleCommand.add(point);
+                            squiggleCommand.add(x, y);
                             break;
                         }
                         m = pPointsEnd.matcher(l);
@@ -371,7 +587,7 @@ public class PaintFileParser {
                         // Parsing Squiggle: looking for EndSquiggle
                         m = pSquiggleEnd.matcher(l);
                         if (m.matches()) {
-                            paintModel.addCommand(squiggleCommand);
+                            listener.commandParsed(squiggleCommand);
                             state = 1;
                             break;
                         }
@@ -417,8 +633,7 @@ public class PaintFileParser {
                         if (m.matches()) {
                             int x = Integer.parseInt(m.group(1));
                             int y = Integer.parseInt(m.group(2));
-                            Point point = new Point(x, y);
-                            polylineCommand.add(point);
+                            polylineCommand.add(x, y);
                             break;
                         }
                         m = pPointsEnd.matcher(l);
@@ -432,7 +647,7 @@ public class PaintFileParser {
                         // Parsing Polyline: looking for EndPolyline
                         m = pPolylineEnd.matcher(l);
                         if (m.matches()) {
-                            paintModel.addCommand(polylineCommand);
+                            listener.commandParsed(polylineCommand);
                             state = 1;
                             break;
                         }
@@ -486,4 +701,598 @@ public class PaintFileParser {
         }
         return true;
     }
+
+    /**
+     * The SCANNER engine: run the FSM over the lines supplied by source.
+     *
+     * @param source     the lines of the file to parse
+     * @param listener receives the commands, in file order
+     * @return whether the complete file was successfully parsed
+     */
+    private boolean scan(PaintFileLineSource source, PaintCommandListener listener) {
+        this.listener = listener;
+        this.errorMessage = "";
+        this.lineNumber = 0;
+        this.state = 0;
+        try {
+            if (!this.scanLines(source)) return false;
+            if (this.progressListener != null) {
+                this.progressListener.progress(source.consumed(), this.total);
+            }
+            if (this.state != 22) {
+                error("Unexpected end of file");
+                return false;
+            }
+        } catch (Exception e) {
+
+        } finally {
+            this.reset();
+        }
+        return true;
+    }
+
+    /**
+     * Advance the FSM over the remaining lines of source, counting them in this.lineNumber.
+     *
+     * @param source
+     * @return false if some line is not expected
+     * @throws IOException
+     */
+    private boolean scanLines(PaintFileLineSource source) throws IOException {
+        boolean tracing = Trace.isEnabled(Trace.Level.DEBUG);
+        while (source.next()) {
+            this.lineNumber++;
+            if (this.lineNumber % PROGRESS_INTERVAL == 0) {
+                if (this.cancelled.get()) {
+                    error("Parse cancelled");
+                    return false;
+                }
+                if (this.progressListener != null) {
+                    this.progressListener.progress(source.consumed(), this.total);
+                }
+            }
+            if (tracing) Trace.debug(this.lineNumber + " " + new String(source.line, 0, source.length) + " " + this.state);
+            if (!this.scanLine(source.line, source.length)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forget the listener, the commands being built and the current line.
+     */
+    private void reset() {
+        this.listener = null;
+        this.circleCommand = null;
+        this.rectangleCommand = null;
+        this.squiggleCommand = null;
+        this.polylineCommand = null;
+        this.line = null;
+    }
+
+    /**
+     * The outcome of scanning one piece of a file in parallel.
+     */
+    private static class Chunk {
+        List<PaintCommand> commands = new ArrayList<PaintCommand>(); // the commands completed in the piece
+        PaintFileParser parser = new PaintFileParser(); // its lineNumber counts the lines of the piece
+        boolean accepted; // no line of the piece was in error
+        boolean crashed; // scanning the piece threw an exception
+    }
+
+    /**
+     * Split buffer into up to chunks pieces, each after the first starting at a
+     * shape, scan them at once, then pass their commands to listener in order.
+     * Each piece but the first is scanned from the Standby State. If that turns
+     * out not to be the state the sequential parse would reach (a shape is left
+     * open, or content follows EndPaintSaveFile) or a piece throws, the whole
+     * buffer is scanned again sequentially, so the result is always the same.
+     *
+     * @param buffer     the whole file
+     * @param chunks     the number of pieces wanted
+     * @param listener receives the commands, in file order
+     * @return whether the complete file was successfully parsed
+     */
+    private boolean scanParallel(ByteBuffer buffer, int chunks, PaintCommandListener listener) {
+        List<Integer> starts = new ArrayList<Integer>();
+        starts.add(0);
+        int limit = buffer.limit();
+        for (int i = 1; i < chunks; i++) {
+            int from = Math.max((int) ((long) limit * i / chunks), starts.getLast() + 1);
+            int start = nextShapeStart(buffer, from);
+            if (start >= limit) break;
+            starts.add(start);
+        }
+        starts.add(limit);
+
+        // The progress of the whole file is the sum of that of the pieces
+        AtomicLong done = new AtomicLong();
+        ProgressListener progressListener = this.progressListener;
+        List<Callable<Chunk>> tasks = new ArrayList<Callable<Chunk>>();
+        for (int i = 0; i + 1 < starts.size(); i++) {
+            ByteBuffer piece = buffer.slice(starts.get(i), starts.get(i + 1) - starts.get(i));
+            int initialState = (i == 0) ? 0 : 1;
+            tasks.add(() -> {
+                Chunk chunk = new Chunk();
+                PaintFileParser parser = chunk.parser;
+                parser.listener = chunk.commands::add;
+                parser.state = initialState;
+                parser.cancelled = this.cancelled;
+                if (progressListener != null) {
+                    long[] reported = {0};
+                    parser.progressListener = (pieceDone, pieceTotal) -> {
+                        progressListener.progress(done.addAndGet(pieceDone - reported[0]), limit);
+                        reported[0] = pieceDone;
+                    };
+                }
+                try {
+                    chunk.accepted = parser.scanLines(PaintFileLineSource.of(piece));
+                } catch (Exception e) {
+                    chunk.crashed = true;
+                } finally {
+                    parser.reset();
+                }
+                return chunk;
+            });
+        }
+
+        List<Chunk> results = new ArrayList<Chunk>();
+        try {
+            for (Future<Chunk> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error("Interrupted");
+            return false;
+        } catch (ExecutionException e) {
+            return this.scan(PaintFileLineSource.of(buffer), listener);
+        }
+
+        // Only use the pieces if each one started where the previous left off.
+        for (int i = 0; i < results.size(); i++) {
+            Chunk chunk = results.get(i);
+            if (chunk.crashed) {
+                return this.scan(PaintFileLineSource.of(buffer), listener);
+            }
+            if (!chunk.accepted) break;
+            if (i + 1 < results.size() && chunk.parser.state != 1) {
+                return this.scan(PaintFileLineSource.of(buffer), listener);
+            }
+        }
+
+        this.listener = listener;
+        this.errorMessage = "";
+        this.lineNumber = 0;
+        for (Chunk chunk : results) {
+            for (PaintCommand command : chunk.commands) {
+                listener.commandParsed(command);
+            }
+            this.lineNumber += chunk.parser.lineNumber;
+            if (!chunk.accepted) {
+                error(chunk.parser.errorReason);
+                return false;
+            }
+            this.state = chunk.parser.state;
+        }
+        if (progressListener != null) {
+            progressListener.progress(limit, limit);
+        }
+        if (this.state != 22) {
+            error("Unexpected end of file");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param buffer
+     * @param from
+     * @return the position of the first line starting at or after from that
+     * is exactly Circle, Rectangle, Squiggle or Polyline, or the limit of buffer
+     */
+    private static int nextShapeStart(ByteBuffer buffer, int from) {
+        int limit = buffer.limit();
+        int position = from;
+        while (position > 0 && position < limit && !isLineEnd(buffer.get(position - 1))) position++;
+
+        char[] word = new char[10];
+        while (position < limit) {
+            int length = 0;
+            int end = position;
+            for (; end < limit && !isLineEnd(buffer.get(end)); end++) {
+                byte c = buffer.get(end);
+                if (PaintFileLineSource.isWhitespace(c)) continue;
+                if (length < word.length) word[length] = (char) c;
+                length++;
+            }
+            if (isWord(word, length, "Circle") || isWord(word, length, "Rectangle")
+                    || isWord(word, length, "Squiggle") || isWord(word, length, "Polyline")) {
+                return position;
+            }
+            position = end + 1;
+        }
+        return limit;
+    }
+
+    private static boolean isWord(char[] word, int length, String keyword) {
+        if (length != keyword.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (word[i] != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isLineEnd(byte c) {
+        return c == '\n' || c == '\r';
+    }
+
+    /**
+     * Advance the FSM over one line, whitespace already removed.
+     *
+     * @param line   holds the characters of the line
+     * @param length the number of characters in the line
+     * @return false if the line is not expected in the current state
+     */
+    private boolean scanLine(char[] line, int length) {
+        this.line = line;
+        this.length = length;
+        this.position = 0;
+        this.overflow = false;
+        switch (this.state) {
+            case 0:  // Initial State: looking for file start
+                if (isLine("PaintSaveFileVersion1.0")) {
+                    this.state = 1;
+                    return true;
+                }
+                error("Expected Start of Paint Save File");
+                return false;
+            case 1:  // Standby State: Looking for the start of a new object or end of the save file
+                if (isLine("Circle")) {
+                    this.circleCommand = new CircleCommand(null, 0);
+                    this.state = 2;
+                    return true;
+                }
+                if (isLine("Rectangle")) {
+                    this.rectangleCommand = new RectangleCommand(null, null);
+                    this.state = 7;
+                    return true;
+                }
+                if (isLine("Squiggle")) {
+                    this.squiggleCommand = new SquiggleCommand();
+                    this.state = 12;
+                    return true;
+                }
+                if (isLine("Polyline")) {
+                    this.polylineCommand = new PolylineCommand();
+                    this.state = 17;
+                    return true;
+                }
+                if (isLine("EndPaintSaveFile")) {
+                    this.state = 22;
+                    return true;
+                }
+                error("Expected Start of Shape or End Paint Save File");
+                return false;
+            case 2:  // Start Parsing Circle: looking for color
+                if (scanColor(this.circleCommand)) {
+                    this.state = 3;
+                    return true;
+                }
+                error("Expected Circle color");
+                return false;
+            case 3:  // Parsing Circle: looking for filled
+                if (scanFilled(this.circleCommand)) {
+                    this.state = 4;
+                    return true;
+                }
+                error("Expected Circle filled");
+                return false;
+            case 4:  // Parsing Circle: looking for center
+                if (scanCoordinate("center:")) {
+                    this.circleCommand.setCentre(new Point(this.x, this.y));
+                    this.state = 5;
+                    return true;
+                }
+                error("Expected Circle center");
+                return false;
+            case 5:  // Parsing Circle: looking for radius
+                if (scanPrefix("radius:") && scanInteger(false) && atEnd()) {
+                    this.circleCommand.setRadius(checkedValue());
+                    this.state = 6;
+                    return true;
+                }
+                error("Expected Circle Radius");
+                return false;
+            case 6:  // Parsing Circle: looking for EndCircle
+                if (isLine("EndCircle")) {
+                    this.listener.commandParsed(this.circleCommand);
+                    this.circleCommand = null;
+                    this.state = 1;
+                    return true;
+                }
+                error("Expected End Circle");
+                return false;
+            case 7:  // Start Parsing Rectangle: looking for color
+                if (scanColor(this.rectangleCommand)) {
+                    this.state = 8;
+                    return true;
+                }
+                error("Expected Rectangle color");
+                return false;
+            case 8:  // Parsing Rectangle: looking for filled
+                if (scanFilled(this.rectangleCommand)) {
+                    this.state = 9;
+                    return true;
+                }
+                error("Expected Rectangle filled");
+                return false;
+            case 9:  // Parsing Rectangle: looking for p1
+                if (scanCoordinate("p1:")) {
+                    this.rectangleCommand.setP1(new Point(this.x, this.y));
+                    this.state = 10;
+                    return true;
+                }
+                error("Expected Rectangle p1");
+                return false;
+            case 10:  // Parsing Rectangle: looking for p2
+                if (scanCoordinate("p2:")) {
+                    this.rectangleCommand.setP2(new Point(this.x, this.y));
+                    this.state = 11;
+                    return true;
+                }
+                error("Expected Rectangle p2");
+                return false;
+            case 11:  // Parsing Rectangle: looking for EndRectangle
+                if (isLine("EndRectangle")) {
+                    this.listener.commandParsed(this.rectangleCommand);
+                    this.rectangleCommand = null;
+                    this.state = 1;
+                    return true;
+                }
+                error("Expected End Rectangle");
+                return false;
+            case 12:  // Start Parsing Squiggle: looking for color
+                if (scanColor(this.squiggleCommand)) {
+                    this.state = 13;
+                    return true;
+                }
+                error("Expected Squiggle color");
+                return false;
+            case 13:  // Parsing Squiggle: looking for filled
+                if (scanFilled(this.squiggleCommand)) {
+                    this.state = 14;
+                    return true;
+                }
+                error("Expected Squiggle filled");
+                return false;
+            case 14:  // Parsing Squiggle: looking for (begin) points
+                if (isLine("points")) {
+                    this.state = 15;
+                    return true;
+                }
+                error("Expected Squiggle points");
+                return false;
+            case 15:  // Parsing Squiggle: looking for point or end points
+                if (scanCoordinate("point:")) {
+                    this.squiggleCommand.add(this.x, this.y);
+                    return true;
+                }
+                if (isLine("endpoints")) {
+                    this.state = 16;
+                    return true;
+                }
+                error("Expected Squiggle point or end points");
+                return false;
+            case 16:  // Parsing Squiggle: looking for EndSquiggle
+                if (isLine("EndSquiggle")) {
+                    this.listener.commandParsed(this.squiggleCommand);
+                    this.squiggleCommand = null;
+                    this.state = 1;
+                    return true;
+                }
+                error("Expected End Squiggle");
+                return false;
+            case 17:  // Start Parsing Polyline: looking for color
+                if (scanColor(this.polylineCommand)) {
+                    this.state = 18;
+                    return true;
+                }
+                error("Expected Polyline color");
+                return false;
+            case 18:  // Parsing Polyline: looking for filled
+                if (scanFilled(this.polylineCommand)) {
+                    this.state = 19;
+                    return true;
+                }
+                error("Expected Polyline filled");
+                return false;
+            case 19:  // Parsing Polyline: looking for (start) points
+                if (isLine("points")) {
+                    this.state = 20;
+                    return true;
+                }
+                error("Expected Polyline points");
+                return false;
+            case 20:  // Parsing Polyline: looking for point or end points
+                if (scanCoordinate("point:")) {
+                    this.polylineCommand.add(this.x, this.y);
+                    return true;
+                }
+                if (isLine("endpoints")) {
+                    this.state = 21;
+                    return true;
+                }
+                error("Expected Polyline point or end points");
+                return false;
+            case 21:  // Parsing Polyline: looking for EndPolyline
+                if (isLine("EndPolyline")) {
+                    this.listener.commandParsed(this.polylineCommand);
+                    this.polylineCommand = null;
+                    this.state = 1;
+                    return true;
+                }
+                error("Expected End Polyline");
+                return false;
+            default:  // 22, Accepting/End State: Has read EndPaintSaveFile (Anything further and do not accept)
+                error("Extra content after End of File");
+                return false;
+        }
+    }
+
+    /**
+     * @param keyword
+     * @return whether the whole line is exactly keyword
+     */
+    private boolean isLine(String keyword) {
+        this.position = 0;
+        return this.length == keyword.length() && scanPrefix(keyword);
+    }
+
+    /**
+     * Consume prefix from the line, if the line continues with it.
+     *
+     * @param prefix
+     * @return whether the line continued with prefix
+     */
+    private boolean scanPrefix(String prefix) {
+        int n = prefix.length();
+        if (this.length - this.position < n) return false;
+        for (int i = 0; i < n; i++) {
+            if (this.line[this.position + i] != prefix.charAt(i)) return false;
+        }
+        this.position += n;
+        return true;
+    }
+
+    private boolean scanChar(char c) {
+        if (this.position < this.length && this.line[this.position] == c) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean atEnd() {
+        return this.position == this.length;
+    }
+
+    /**
+     * Consume an integer, -?\d+ (or \d+ if negative is not allowed), into this.value.
+     * An integer too large for an int still matches, but sets this.overflow.
+     *
+     * @param negative whether a leading '-' is allowed
+     * @return whether an integer was consumed
+     */
+    private boolean scanInteger(boolean negative) {
+        boolean minus = negative && scanChar('-');
+        int start = this.position;
+        long v = 0;
+        while (this.position < this.length) {
+            char c = this.line[this.position];
+            if (c < '0' || c > '9') break;
+            if (v < (1L << 40)) v = 10 * v + (c - '0'); // stays out of range once it gets there
+            this.position++;
+        }
+        if (this.position == start) return false;
+        if (minus) v = -v;
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            this.overflow = true;
+        }
+        this.value = (int) v;
+        return true;
+    }
+
+    /**
+     * @return this.value, failing just as Integer.parseInt would if some integer on the line overflowed
+     */
+    private int checkedValue() {
+        if (this.overflow) {
+            throw new NumberFormatException("Integer out of range in line " + this.lineNumber);
+        }
+        return this.value;
+    }
+
+    /**
+     * Match the whole line against keyword(x,y), storing the coordinate in this.x and this.y.
+     *
+     * @param keyword
+     * @return whether the line matched
+     */
+    private boolean scanCoordinate(String keyword) {
+        if (!(scanPrefix(keyword) && scanChar('(') && scanInteger(true))) return false;
+        int x = this.value;
+        if (!(scanChar(',') && scanInteger(true) && scanChar(')') && atEnd())) return false;
+        checkedValue();
+        this.x = x;
+        this.y = this.value;
+        return true;
+    }
+
+    /**
+     * Consume a color component, 0 to 255 without leading zeros.
+     *
+     * @return the component, or -1 if there is none
+     */
+    private int scanColorComponent() {
+        int start = this.position;
+        int v = 0;
+        while (this.position < this.length && this.position - start < 4) {
+            char c = this.line[this.position];
+            if (c < '0' || c > '9') break;
+            v = 10 * v + (c - '0');
+            this.position++;
+        }
+        int digits = this.position - start;
+        if (digits == 0 || digits > 3) return -1;
+        if (digits > 1 && this.line[start] == '0') return -1;
+        return v <= 255 ? v : -1;
+    }
+
+    /**
+     * Match the whole line against color:r,g,b and set the color of command.
+     *
+     * @param command
+     * @return whether the line matched
+     */
+    private boolean scanColor(PaintCommand command) {
+        if (!scanPrefix("color:")) return false;
+        int r = scanColorComponent();
+        if (r < 0 || !scanChar(',')) return false;
+        int g = scanColorComponent();
+        if (g < 0 || !scanChar(',')) return false;
+        int b = scanColorComponent();
+        if (b < 0 || !atEnd()) return false;
+        command.setColor(Color.rgb(r, g, b));
+        return true;
+    }
+
+    /**
+     * Match the whole line against filled:true or filled:false and set the fill of command.
+     *
+     * @param command
+     * @return whether the line matched
+     */
+    private boolean scanFilled(PaintCommand command) {
+        if (!scanPrefix("filled:")) return false;
+        if (isRest("true")) {
+            command.setFill(true);
+            return true;
+        }
+        if (isRest("false")) {
+            command.setFill(false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param rest
+     * @return whether the remainder of the line is exactly rest
+     */
+    private boolean isRest(String rest) {
+        int start = this.position;
+        if (this.length - start == rest.length() && scanPrefix(rest)) return true;
+        this.position = start;
+        return false;
+    }
 }
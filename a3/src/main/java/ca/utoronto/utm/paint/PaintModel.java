@@ -1,38 +1,132 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 
-public class PaintModel extends Observable implements Observer {
+/**
+ * The commands of a drawing. Changes to the model, and to its commands, are
+ * not passed on one at a time; they are collected until a listener takes
+ * them, so a view can redraw once for everything that changed since it last
+ * drew, rather than once per mouse event. Each part of the program that
+ * follows the model, such as the autosave journal, can collect the changes
+ * separately with trackChanges.
+ *
+ * The commands are also indexed by where they draw, so the commands at a
+ * point or in a region, such as the visible part of a zoomed view, are
+ * found without looking at every command.
+ */
+public final class PaintModel {
 
     public void save(PrintWriter writer) {
+        try {
+            this.save(new PaintSaveFileWriter(writer));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // not thrown by a PrintWriter
+        }
+    }
+
+    /**
+     * Write the blocks of the commands of this to writer, and flush it.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void save(PaintSaveFileWriter writer) throws IOException {
         for (PaintSaveFileSavable command : this.commands) {
-            writer.print(command.getPaintSaveFileString());
+            command.writePaintSaveFile(writer);
         }
+        writer.flush();
     }
 
+    /**
+     * Remove all the commands. This cannot be undone, and clears the history.
+     */
     public void reset() {
         for (PaintCommand c : this.commands) {
-            c.deleteObserver(this);
+            c.setModel(null);
         }
         this.commands.clear();
-        this.setChanged();
-        this.notifyObservers();
+        this.grid.clear();
+        if (this.history != null) {
+            this.history.clear();
+        }
+        for (PaintModelChanges changes : this.trackers) {
+            changes.allChanged();
+        }
     }
 
+    /**
+     * Add command after the others, so it is executed last. A command can be
+     * in a model only once, as its changes are tracked by identity.
+     *
+     * @param command
+     * @throws IllegalArgumentException if command is already in this
+     */
     public void addCommand(PaintCommand command) {
-        this.commands.add(command);
-        command.addObserver(this);
-        this.setChanged();
-        this.notifyObservers();
+        if (this.grid.contains(command)) throw new IllegalArgumentException("Command already added");
+        this.insertCommand(this.commands.size(), command, this.grid.nextOrder());
+    }
+
+    /**
+     * Put command at index, indexed with order, which must lie between the
+     * orders of the commands either side of it. Used to put back a removed command.
+     */
+    void insertCommand(int index, PaintCommand command, long order) {
+        this.grid.add(command, order); // first, so if its bounds throw, this is left as it was
+        this.commands.add(index, command);
+        command.setModel(this);
+        if (this.history != null) {
+            this.history.commandAdded(command, index, order);
+        }
+        this.commandChanged(command);
+    }
+
+    /**
+     * Remove command from this. The removal is reported as a change to command.
+     *
+     * @param command
+     */
+    public void removeCommand(PaintCommand command) {
+        if (!this.grid.contains(command)) return;
+        int index = this.commands.lastIndexOf(command); // usually one of the last added
+        this.commands.remove(index);
+        long order = this.grid.remove(command);
+        command.setModel(null);
+        if (this.history != null) {
+            this.history.commandRemoved(command, index, order);
+        }
+        this.commandChanged(command);
+    }
+
+    /**
+     * @param command
+     * @return whether command is one of the commands of this
+     */
+    public boolean contains(PaintCommand command) {
+        return this.grid.contains(command);
     }
 
     private ArrayList<PaintCommand> commands = new ArrayList<PaintCommand>();
+    private CommandGrid grid = new CommandGrid(); // the commands, by where they draw
+    private UndoHistory history; // records the changes to this, if any
 
+    private PaintModelChanges changes = new PaintModelChanges(this); // taken with takeChanges
+    private ArrayList<PaintModelChanges> trackers = new ArrayList<PaintModelChanges>(List.of(this.changes));
+
+    /**
+     * @return the commands of this, in the order they are executed
+     */
+    public List<PaintCommand> getCommands() {
+        return Collections.unmodifiableList(this.commands);
+    }
 
     public void executeAll(GraphicsContext g) {
         for (PaintCommand c : this.commands) {
@@ -41,11 +135,123 @@ public class PaintModel extends Observable implements Observer {
     }
 
     /**
-     * We Observe our model components, the PaintCommands
+     * Execute only the commands that may draw within viewport, in order.
+     *
+     * @param g
+     * @param viewport the visible region, in the coordinates of the commands
+     */
+    public void executeAll(GraphicsContext g, Rectangle2D viewport) {
+        for (PaintCommand c : this.getCommandsIntersecting(viewport)) {
+            c.execute(g);
+        }
+    }
+
+    /**
+     * @param region
+     * @return the commands whose bounds intersect region, in the order they are executed
+     */
+    public List<PaintCommand> getCommandsIntersecting(Rectangle2D region) {
+        return this.grid.query(region.getMinX(), region.getMinY(), region.getMaxX(), region.getMaxY());
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @return the commands whose bounds contain (x, y), in the order they are
+     * executed, so the topmost is last
+     */
+    public List<PaintCommand> getCommandsAt(double x, double y) {
+        return this.grid.query(x, y, x, y);
+    }
+
+    /**
+     * @return the history recording the changes to this, or null if they are not recorded
+     */
+    public UndoHistory getHistory() {
+        return this.history;
+    }
+
+    void setHistory(UndoHistory history) {
+        this.history = history;
+    }
+
+    public void addListener(PaintModelListener listener) {
+        this.changes.addListener(listener);
+    }
+
+    public void removeListener(PaintModelListener listener) {
+        this.changes.removeListener(listener);
+    }
+
+    /**
+     * Start collecting the changes to this separately from those taken with
+     * takeChanges, for another part of the program to take.
+     *
+     * @return the changes made from now on
+     */
+    public PaintModelChanges trackChanges() {
+        PaintModelChanges changes = new PaintModelChanges(this);
+        this.trackers.add(changes);
+        return changes;
+    }
+
+    /**
+     * @param changes no longer collected
+     */
+    public void stopTrackingChanges(PaintModelChanges changes) {
+        this.trackers.remove(changes);
+    }
+
+    /**
+     * @param command
+     * @return the position of command in the order the commands are executed,
+     * kept if it is removed and put back, or -1 if command is not in this
+     */
+    long getOrder(PaintCommand command) {
+        return this.grid.orderOf(command);
+    }
+
+    /**
+     * Called by the commands of this just before they change.
+     *
+     * @param command
+     */
+    void commandChanging(PaintCommand command) {
+        if (this.history != null) {
+            this.history.commandChanging(command);
+        }
+    }
+
+    /**
+     * Called by the commands of this when they change.
+     *
+     * @param command
+     */
+    void commandChanged(PaintCommand command) {
+        this.grid.update(command);
+        for (PaintModelChanges changes : this.trackers) {
+            changes.commandChanged(command);
+        }
+        if (this.history != null) {
+            this.history.commandChanged(command);
+        }
+    }
+
+    /**
+     * @return whether this has changed since the changes were last taken
+     */
+    public boolean isDirty() {
+        return this.changes.isDirty();
+    }
+
+    /**
+     * Take the changes made since they were last taken. The listeners are
+     * told of the next change.
+     *
+     * @return the commands that changed, each once, or null if any command may
+     * have changed or been removed
      */
-    @Override
-    public void update(Observable o, Object arg) {
-        this.setChanged();
-        this.notifyObservers();
+    public Collection<PaintCommand> takeChanges() {
+        return this.changes.takeChanges();
     }
 }
@@ -0,0 +1,83 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Collects the changes to a PaintModel, and its commands, until they are
+ * taken. Each part of the program that follows a model, such as the panel
+ * drawing it, has its own PaintModelChanges, so each takes the changes when
+ * it is ready for them.
+ */
+public class PaintModelChanges {
+    private final PaintModel model;
+    private ArrayList<PaintModelListener> listeners = new ArrayList<PaintModelListener>();
+    // The commands changed since the changes were last taken
+    private Set<PaintCommand> changed = Collections.newSetFromMap(new IdentityHashMap<PaintCommand, Boolean>());
+    private boolean changedAll = false; // whether any command may have changed, or been removed
+    private boolean dirty = false; // whether there are changes not yet taken
+
+    PaintModelChanges(PaintModel model) {
+        this.model = model;
+    }
+
+    public void addListener(PaintModelListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(PaintModelListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    void commandChanged(PaintCommand command) {
+        if (!this.changedAll) {
+            this.changed.add(command);
+        }
+        this.markDirty();
+    }
+
+    /**
+     * Any command may have changed, or been removed.
+     */
+    void allChanged() {
+        this.changedAll = true;
+        this.changed.clear();
+        this.markDirty();
+    }
+
+    private void markDirty() {
+        if (this.dirty) return; // the listeners have already been told
+        this.dirty = true;
+        for (PaintModelListener listener : new ArrayList<PaintModelListener>(this.listeners)) {
+            listener.modelChanged(this.model);
+        }
+    }
+
+    /**
+     * @return whether the model has changed since the changes were last taken
+     */
+    public boolean isDirty() {
+        return this.dirty;
+    }
+
+    /**
+     * Take the changes made since they were last taken. The listeners are
+     * told of the next change.
+     *
+     * @return the commands that changed, each once, or null if any command may
+     * have changed or been removed
+     */
+    public Collection<PaintCommand> takeChanges() {
+        Collection<PaintCommand> changes = null;
+        if (!this.changedAll) {
+            changes = new ArrayList<PaintCommand>(this.changed);
+        }
+        this.changed.clear();
+        this.changedAll = false;
+        this.dirty = false;
+        return changes;
+    }
+}
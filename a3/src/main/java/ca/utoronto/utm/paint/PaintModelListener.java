@@ -0,0 +1,10 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * Told when a PaintModel with no pending changes first changes. Further
+ * changes are collected by the model, without telling the listener again,
+ * until they are taken with PaintModel.takeChanges.
+ */
+public interface PaintModelListener {
+    public void modelChanged(PaintModel model);
+}
@@ -1,28 +1,63 @@
 package ca.utoronto.utm.paint;
 
-import java.util.Observable;
-import java.util.Observer;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
+import javafx.animation.AnimationTimer;
 import javafx.event.EventHandler;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.StackPane;
 
-class PaintPanel extends StackPane implements Observer, EventHandler<MouseEvent> {
+/**
+ * Displays a PaintModel on two stacked canvases. Finished commands are drawn
+ * on the lower canvas, which keeps their pixels, so they are only redrawn
+ * where a command changes. The command the strategy is still editing is
+ * drawn alone on the transparent overlay above it, so each mouse event
+ * redraws one command however many shapes the drawing holds.
+ *
+ * Neither canvas is drawn on as the model changes. The first change starts
+ * a timer, which on the next pulse takes every change since the last pulse
+ * from the model and draws them together, so each frame is drawn once.
+ */
+class PaintPanel extends StackPane implements PaintModelListener, EventHandler<MouseEvent> {
+
+    /**
+     * Added around the bounds of commands, to cover the width of strokes and antialiasing
+     */
+    private static final double STROKE_MARGIN = 2;
 
     private PaintModel model;
-    private Canvas canvas;
+    private Canvas canvas; // the finished commands
+    private Canvas overlay; // the command being edited
+    private PaintCommand liveCommand; // the command drawn on the overlay, if any
     private ShapeManipulatorStrategy strategy;
 
+    // The bounds of each command when it was last drawn, so that when it
+    // changes, both where it was and where it now is can be repainted.
+    private Map<PaintCommand, Rectangle2D> drawnBounds = new IdentityHashMap<PaintCommand, Rectangle2D>();
+
+    // Runs only while there are changes to draw, stopping itself once it has drawn them
+    private AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            this.stop();
+            PaintPanel.this.drawChanges();
+        }
+    };
+
     public PaintPanel(PaintModel model) {
 
         this.canvas = new Canvas(500, 500);
-        this.getChildren().add(this.canvas);
+        this.overlay = new Canvas(500, 500);
+        this.getChildren().addAll(this.canvas, this.overlay);
         // The canvas is transparent, so the background color of the
         // containing pane serves as the background color of the canvas.
         this.setStyle("-fx-background-color: white");
-        this.canvas.addEventHandler(MouseEvent.ANY, this);
+        this.overlay.addEventHandler(MouseEvent.ANY, this);
         this.setPaintModel(model);
 
     }
@@ -35,32 +70,154 @@ class PaintPanel extends StackPane implements Observer, EventHandler<MouseEvent>
     public void setPaintModel(PaintModel model) {
         if (model == null) return;
         if (this.model != null) {
-            this.model.deleteObserver(this);
+            this.model.removeListener(this);
         }
         this.model = model;
+        this.liveCommand = null; // belongs to the previous model
         this.setShapeManipulatorStrategy(new ShapeManipulatorStrategy(this.model)); // set to the empty strategy
-        this.model.addObserver(this);
+        this.model.addListener(this);
+        this.model.takeChanges(); // all drawn by the repaint
         this.repaint();
     }
 
+    /**
+     * Clear both canvases and draw every command that is on them.
+     */
     public void repaint() {
         GraphicsContext g = this.canvas.getGraphicsContext2D();
         g.clearRect(0, 0, this.getWidth(), this.getHeight());
-        this.model.executeAll(g);
+        this.drawnBounds.clear();
+        Rectangle2D visible = new Rectangle2D(-STROKE_MARGIN, -STROKE_MARGIN,
+                this.canvas.getWidth() + 2 * STROKE_MARGIN, this.canvas.getHeight() + 2 * STROKE_MARGIN);
+        for (PaintCommand c : this.model.getCommandsIntersecting(visible)) {
+            if (c != this.liveCommand) {
+                c.execute(g);
+                this.drawnBounds.put(c, c.getBounds());
+            }
+        }
+        this.repaintOverlay();
+    }
+
+    /**
+     * Clear the overlay and draw the command being edited on it.
+     */
+    private void repaintOverlay() {
+        GraphicsContext g = this.overlay.getGraphicsContext2D();
+        g.clearRect(0, 0, this.overlay.getWidth(), this.overlay.getHeight());
+        if (this.liveCommand != null && this.model.contains(this.liveCommand)) {
+            this.liveCommand.execute(g);
+        }
+    }
+
+    /**
+     * Move the command the strategy is editing onto the overlay, first
+     * drawing the command that was there, now finished, onto the canvas.
+     */
+    private void updateLiveCommand() {
+        PaintCommand active = this.strategy.getActiveCommand();
+        if (active == this.liveCommand) return;
+        PaintCommand finished = this.liveCommand;
+        this.liveCommand = active;
+        if (finished != null) {
+            this.repaint(finished);
+        }
+        if (active != null && this.drawnBounds.containsKey(active)) {
+            this.repaint(active); // erase it from the canvas
+            this.drawnBounds.remove(active);
+        }
+        this.repaintOverlay();
+    }
+
+    /**
+     * Repaint only the region of the canvas covering where command was last
+     * drawn and where it is now, drawing just the finished commands
+     * intersecting that region.
+     *
+     * @param command the command that changed
+     */
+    public void repaint(PaintCommand command) {
+        Rectangle2D bounds = this.model.contains(command) ? command.getBounds() : null; // null once removed
+        Rectangle2D dirty = union(this.drawnBounds.remove(command), bounds);
+        if (bounds != null) {
+            this.drawnBounds.put(command, bounds);
+        }
+        if (dirty == null) return;
+
+        // Grow to whole pixels, so no partly cleared pixels are left at the edges.
+        double minX = Math.floor(dirty.getMinX() - STROKE_MARGIN), minY = Math.floor(dirty.getMinY() - STROKE_MARGIN);
+        double maxX = Math.ceil(dirty.getMaxX() + STROKE_MARGIN), maxY = Math.ceil(dirty.getMaxY() + STROKE_MARGIN);
+
+        GraphicsContext g = this.canvas.getGraphicsContext2D();
+        g.save();
+        g.beginPath();
+        g.rect(minX, minY, maxX - minX, maxY - minY);
+        g.clip();
+        g.clearRect(minX, minY, maxX - minX, maxY - minY);
+        // Commands whose strokes may reach into the region
+        Rectangle2D reach = new Rectangle2D(minX - STROKE_MARGIN, minY - STROKE_MARGIN,
+                maxX - minX + 2 * STROKE_MARGIN, maxY - minY + 2 * STROKE_MARGIN);
+        for (PaintCommand c : this.model.getCommandsIntersecting(reach)) {
+            if (c != this.liveCommand) {
+                c.execute(g);
+            }
+        }
+        g.restore();
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return the smallest rectangle containing a and b, either of which may be null
+     */
+    private static Rectangle2D union(Rectangle2D a, Rectangle2D b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        double minX = Math.min(a.getMinX(), b.getMinX()), minY = Math.min(a.getMinY(), b.getMinY());
+        double maxX = Math.max(a.getMaxX(), b.getMaxX()), maxY = Math.max(a.getMaxY(), b.getMaxY());
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
     }
 
+    /**
+     * Draw everything that changed since this last drew.
+     */
+    private void drawChanges() {
+        this.updateLiveCommand();
+        Collection<PaintCommand> changes = this.model.takeChanges();
+        if (changes == null) {
+            this.repaint();
+            return;
+        }
+        boolean liveChanged = false;
+        for (PaintCommand command : changes) {
+            if (command == this.liveCommand) {
+                liveChanged = true;
+            } else {
+                this.repaint(command);
+            }
+        }
+        if (liveChanged) {
+            this.repaintOverlay();
+        }
+    }
+
+    /**
+     * Draw the changes to the model on the next pulse.
+     */
     @Override
-    public void update(Observable o, Object arg) {
-        this.repaint();
+    public void modelChanged(PaintModel model) {
+        this.pulse.start();
     }
 
     @Override
     public void handle(MouseEvent event) {
         this.strategy.handle(event);
+        if (this.strategy.getActiveCommand() != this.liveCommand) {
+            this.pulse.start(); // the strategy finished a shape without changing the model
+        }
     }
 
     public void setShapeManipulatorStrategy(ShapeManipulatorStrategy strategy) {
         this.strategy = strategy;
+        this.updateLiveCommand();
     }
 }
-
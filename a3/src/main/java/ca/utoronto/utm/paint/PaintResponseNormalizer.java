@@ -0,0 +1,402 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * Cleans up a response of the model into a Paint Save File, as
+ * OllamaPaint.postProcessByRegex does, in one pass over the response, which may be
+ * given a token at a time as it is generated. The file is then ready the
+ * moment the response ends.
+ *
+ * Each character goes once through these stages, each a small state machine
+ * holding back only what it cannot yet decide on:
+ * <ol>
+ * <li>quotation marks, periods and asterisks are dropped;</li>
+ * <li>if the response has triple graves, only what is between the first two
+ * is kept, trimmed, or all after the first if there is just one;</li>
+ * <li>all before the first "Paint Save File Version 10", the header once
+ * its period is dropped, and all from the next "End Paint Save File" on,
+ * are dropped; without a header, just the latter;</li>
+ * <li>sums and differences of integers, such as 275-25, are computed;</li>
+ * <li>the header and footer are put back.</li>
+ * </ol>
+ * The comments postProcessByRegex removes with "//.*$" are left alone: without
+ * MULTILINE that only matches at the end of the file, which is the footer.
+ *
+ * Until a header arrives, the text before it is held, as it is dropped if
+ * one does. Past the header, the lines of the file are passed to a
+ * LineListener as soon as they are complete. Text outside triple graves is
+ * dropped once they arrive, so the lines given before the first triple
+ * graves are withdrawn if they do, by LineListener.reset.
+ */
+public class PaintResponseNormalizer implements OllamaClient.TokenListener {
+    /**
+     * Receives the lines of the file, as a BufferedReader would read them.
+     */
+    public interface LineListener {
+        public void line(String line);
+
+        /**
+         * The lines given so far are not part of the file after all.
+         */
+        public void reset();
+    }
+
+    static final String HEADER = "Paint Save File Version 1.0";
+    static final String FOOTER = "End Paint Save File";
+
+    private static final char[] START = "Paint Save File Version 10".toCharArray();
+    private static final char[] END = FOOTER.toCharArray();
+    private static final int[] START_BORDERS = borders(START);
+    private static final int[] END_BORDERS = borders(END);
+
+    private final LineListener listener;
+    private String result; // once finished
+
+    // Triple graves
+    private int graves = 0; // how many have been seen, the first two count
+    private int backticks = 0; // held, not yet three
+
+    // Trimming, between the first and second triple graves
+    private int leading = 0; // whitespace at the start
+    private boolean leadingDone = false;
+    private StringBuilder whitespace = new StringBuilder(); // held, dropped if the triple graves come next
+
+    // Header and footer
+    private boolean started = false; // past the header
+    private boolean ended = false; // past the footer
+    private StringBuilder preamble = new StringBuilder(); // held until the header
+    private int preambleEnd = -1; // where the first footer in preamble starts
+    private int startMatched = 0, endMatched = 0; // the characters of each matched so far
+
+    // Arithmetic
+    private StringBuilder run = new StringBuilder(); // digits, '+' and '-', held until it ends
+    private boolean wordBefore = false; // whether the character before run is a word character, to \b
+    private boolean base = false; // whether the last character, not a mark, is a letter or digit
+    private char highSurrogate = 0; // held until its low surrogate
+
+    // Output
+    private StringBuilder text = new StringBuilder();
+    private StringBuilder line = new StringBuilder();
+    private boolean headerGiven = false;
+    private boolean linesGiven = false;
+    private boolean afterCarriageReturn = false;
+
+    public PaintResponseNormalizer() {
+        this(null);
+    }
+
+    /**
+     * @param listener receives the lines of the file, or null
+     */
+    public PaintResponseNormalizer(LineListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param response
+     * @return the Paint Save File in response
+     */
+    public static String normalize(String response) {
+        PaintResponseNormalizer normalizer = new PaintResponseNormalizer();
+        normalizer.token(response);
+        return normalizer.finish();
+    }
+
+    /**
+     * Take the next part of the response.
+     *
+     * @param token
+     */
+    @Override
+    public void token(String token) {
+        if (this.result != null) throw new IllegalStateException("Already finished");
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c != '"' && c != '.' && c != '*') this.grave(c);
+        }
+    }
+
+    /**
+     * The response is complete.
+     *
+     * @return the Paint Save File
+     */
+    public String finish() {
+        if (this.result != null) return this.result;
+        if (this.graves < 2) this.releaseBackticks();
+        if (this.graves == 1) this.releaseWhitespace();
+        if (!this.started) {
+            int end = this.preambleEnd < 0 ? this.preamble.length() : this.preambleEnd;
+            int skip = this.graves == 2 ? this.leading : 0;
+            for (int i = skip; i < end; i++) {
+                this.arithmetic(this.preamble.charAt(i));
+            }
+        } else if (!this.ended) {
+            for (int i = 0; i < this.endMatched; i++) {
+                this.arithmetic(END[i]);
+            }
+        }
+        if (this.highSurrogate != 0) this.codePoint(this.highSurrogate);
+        this.releaseRun(false);
+        this.output('\n');
+        for (char c : END) {
+            this.output(c);
+        }
+        this.giveLine();
+        this.result = this.text.toString();
+        return this.result;
+    }
+
+    private void grave(char c) {
+        if (this.graves >= 2) return;
+        if (c == '`') {
+            if (++this.backticks == 3) {
+                this.backticks = 0;
+                this.graves++;
+                if (this.graves == 1) {
+                    this.restart();
+                } else {
+                    this.whitespace.setLength(0); // trimmed
+                }
+            }
+            return;
+        }
+        this.releaseBackticks();
+        this.graved(c);
+    }
+
+    private void releaseBackticks() {
+        for (; this.backticks > 0; this.backticks--) {
+            this.graved('`');
+        }
+    }
+
+    private void graved(char c) {
+        if (this.graves == 0) {
+            this.body(c);
+            return;
+        }
+        if (c <= ' ') {
+            if (this.leadingDone) {
+                this.whitespace.append(c);
+            } else {
+                this.leading++; // only dropped without a header, from the preamble
+                this.body(c);
+            }
+            return;
+        }
+        this.leadingDone = true;
+        this.releaseWhitespace();
+        this.body(c);
+    }
+
+    private void releaseWhitespace() {
+        for (int i = 0; i < this.whitespace.length(); i++) {
+            this.body(this.whitespace.charAt(i));
+        }
+        this.whitespace.setLength(0);
+    }
+
+    /**
+     * Take the next character of the text the file is in, the response or what is between triple graves.
+     */
+    private void body(char c) {
+        if (this.ended) return;
+        if (!this.started) {
+            this.preamble.append(c);
+            this.endMatched = step(END, END_BORDERS, this.endMatched, c);
+            if (this.endMatched == END.length) {
+                if (this.preambleEnd < 0) this.preambleEnd = this.preamble.length() - END.length;
+                this.endMatched = END_BORDERS[END.length];
+            }
+            this.startMatched = step(START, START_BORDERS, this.startMatched, c);
+            if (this.startMatched == START.length) {
+                this.started = true;
+                this.preamble.setLength(0);
+                this.preambleEnd = -1;
+                this.endMatched = 0;
+            }
+            return;
+        }
+        // The characters of the footer matched so far are held, and released once they are not
+        int matched = step(END, END_BORDERS, this.endMatched, c);
+        if (matched == END.length) {
+            this.ended = true;
+            return;
+        }
+        int released = this.endMatched + 1 - matched;
+        for (int i = 0; i < released; i++) {
+            this.arithmetic(i < this.endMatched ? END[i] : c);
+        }
+        this.endMatched = matched;
+    }
+
+    /**
+     * @return the number of characters of pattern matched after c, given matched were before it (Knuth-Morris-Pratt)
+     */
+    private static int step(char[] pattern, int[] borders, int matched, char c) {
+        if (matched == pattern.length) matched = borders[matched];
+        while (matched > 0 && pattern[matched] != c) {
+            matched = borders[matched];
+        }
+        return pattern[matched] == c ? matched + 1 : 0;
+    }
+
+    /**
+     * @return for each prefix of pattern, the length of its longest proper prefix that is also a suffix
+     */
+    private static int[] borders(char[] pattern) {
+        int[] borders = new int[pattern.length + 1];
+        for (int i = 1, k = 0; i < pattern.length; i++) {
+            while (k > 0 && pattern[i] != pattern[k]) {
+                k = borders[k];
+            }
+            if (pattern[i] == pattern[k]) k++;
+            borders[i + 1] = k;
+        }
+        return borders;
+    }
+
+    /**
+     * Take the next character of the file, between its header and footer.
+     */
+    private void arithmetic(char c) {
+        if (this.highSurrogate != 0) {
+            char high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                this.codePoint(Character.toCodePoint(high, c));
+                return;
+            }
+            this.codePoint(high);
+        }
+        if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else {
+            this.codePoint(c);
+        }
+    }
+
+    private void codePoint(int c) {
+        if (isDigit(c) || c == '+' || c == '-') {
+            this.run.append((char) c);
+            return;
+        }
+        boolean mark = Character.getType(c) == Character.NON_SPACING_MARK;
+        this.releaseRun(isWord(c) || mark); // a mark after a digit is part of the word
+        if (Character.isBmpCodePoint(c)) {
+            this.output((char) c);
+        } else {
+            this.output(Character.highSurrogate(c));
+            this.output(Character.lowSurrogate(c));
+        }
+        // As Pattern decides \b, a mark is a word character if the last character before it that is not is a letter or digit
+        boolean bmp = Character.isBmpCodePoint(c);
+        if (mark) {
+            this.wordBefore = bmp && this.base;
+            if (!bmp) this.base = false;
+        } else {
+            this.wordBefore = isWord(c);
+            this.base = bmp && Character.isLetterOrDigit(c);
+        }
+    }
+
+    /**
+     * Compute the sums and differences in run, as postProcessByRegex does with "\b(-?\d+)([+-])(\d+)\b".
+     *
+     * @param wordAfter whether the character after run is a word character
+     */
+    private void releaseRun(boolean wordAfter) {
+        int length = this.run.length();
+        if (length == 0) return;
+        int i = 0;
+        while (i < length) {
+            char c = this.run.charAt(i);
+            boolean before = i == 0 ? this.wordBefore : isDigit(this.run.charAt(i - 1));
+            int j = i;
+            if (c == '-' && before) {
+                j++; // \b before the '-'
+            } else if (!isDigit(c) || before) {
+                this.output(c);
+                i++;
+                continue;
+            }
+            int k = j;
+            while (k < length && isDigit(this.run.charAt(k))) k++;
+            int m = k + 1;
+            while (m < length && isDigit(this.run.charAt(m))) m++;
+            if (k == j || k >= length || m == k + 1 || (m == length && wordAfter)) {
+                this.output(c);
+                i++;
+                continue;
+            }
+            int operand1 = Integer.parseInt(this.run.substring(i, k));
+            if (c == '-') operand1 = -operand1; // as postProcessByRegex does, making x-5+3 x8
+            int operand2 = Integer.parseInt(this.run.substring(k + 1, m));
+            int value = this.run.charAt(k) == '+' ? operand1 + operand2 : operand1 - operand2;
+            String computed = Integer.toString(value);
+            for (int n = 0; n < computed.length(); n++) {
+                this.output(computed.charAt(n));
+            }
+            i = m;
+        }
+        this.wordBefore = isDigit(this.run.charAt(length - 1));
+        this.base = this.wordBefore;
+        this.run.setLength(0);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWord(int c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private void output(char c) {
+        if (!this.headerGiven) {
+            this.headerGiven = true;
+            this.text.append(HEADER).append('\n');
+            this.line.append(HEADER);
+            this.giveLine();
+        }
+        this.text.append(c);
+        if (this.listener == null) return;
+        if (c == '\n' && this.afterCarriageReturn) {
+            this.afterCarriageReturn = false;
+        } else if (c == '\n' || c == '\r') {
+            this.giveLine();
+            this.afterCarriageReturn = c == '\r';
+        } else {
+            this.afterCarriageReturn = false;
+            this.line.append(c);
+        }
+    }
+
+    private void giveLine() {
+        this.linesGiven = true;
+        if (this.listener != null) this.listener.line(this.line.toString());
+        this.line.setLength(0);
+    }
+
+    /**
+     * Start the file again, from the text between the triple graves just found.
+     */
+    private void restart() {
+        if (this.linesGiven && this.listener != null) this.listener.reset();
+        this.started = false;
+        this.ended = false;
+        this.preamble.setLength(0);
+        this.preambleEnd = -1;
+        this.startMatched = 0;
+        this.endMatched = 0;
+        this.run.setLength(0);
+        this.wordBefore = false;
+        this.base = false;
+        this.highSurrogate = 0;
+        this.text.setLength(0);
+        this.line.setLength(0);
+        this.headerGiven = false;
+        this.linesGiven = false;
+        this.afterCarriageReturn = false;
+    }
+}
@@ -1,5 +1,15 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+
 public interface PaintSaveFileSavable {
     public String getPaintSaveFileString();
+
+    /**
+     * Write the text of getPaintSaveFileString to writer, without building it as a String.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void writePaintSaveFile(PaintSaveFileWriter writer) throws IOException;
 }
@@ -0,0 +1,134 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Writes Version 1.0 of the Paint Save File format. Commands write their own
+ * blocks through this, so nothing is built up as a String first: keywords
+ * and integers are put, as ASCII bytes, straight into a buffer that is
+ * passed on to the OutputStream, or Writer, once full. Saving a squiggle of
+ * any length takes the same memory.
+ *
+ * Nothing reaches the destination until the buffer fills or flush is called.
+ */
+public class PaintSaveFileWriter {
+    private final OutputStream out; // the destination, or null if it is writer
+    private final Writer writer;
+    private final byte[] buffer = new byte[1 << 16];
+    private char[] chars; // buffer as characters, for writer
+    private int count = 0;
+
+    public PaintSaveFileWriter(OutputStream out) {
+        this.out = out;
+        this.writer = null;
+    }
+
+    public PaintSaveFileWriter(Writer writer) {
+        this.out = null;
+        this.writer = writer;
+    }
+
+    /**
+     * Pass what is buffered on to the destination, and flush it.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        this.drain();
+        if (this.out != null) {
+            this.out.flush();
+        } else {
+            this.writer.flush();
+        }
+    }
+
+    private void drain() throws IOException {
+        if (this.out != null) {
+            this.out.write(this.buffer, 0, this.count);
+        } else {
+            if (this.chars == null) this.chars = new char[this.buffer.length];
+            for (int i = 0; i < this.count; i++) {
+                this.chars[i] = (char) this.buffer[i];
+            }
+            this.writer.write(this.chars, 0, this.count);
+        }
+        this.count = 0;
+    }
+
+    /**
+     * @param c an ASCII character
+     * @return this
+     * @throws IOException
+     */
+    public PaintSaveFileWriter write(char c) throws IOException {
+        if (this.count == this.buffer.length) this.drain();
+        this.buffer[this.count++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * @param s ASCII text, such as a keyword
+     * @return this
+     * @throws IOException
+     */
+    public PaintSaveFileWriter write(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            this.write(s.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Write value in decimal, as Integer.toString would, without making a String.
+     *
+     * @param value
+     * @return this
+     * @throws IOException
+     */
+    public PaintSaveFileWriter writeInt(int value) throws IOException {
+        if (this.buffer.length - this.count < 11) this.drain(); // room for "-2147483648"
+        long v = value; // so -Integer.MIN_VALUE fits
+        if (v < 0) {
+            this.buffer[this.count++] = '-';
+            v = -v;
+        }
+        int end = this.count + digits(v);
+        for (int i = end - 1; i >= this.count; i--) {
+            this.buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        this.count = end;
+        return this;
+    }
+
+    private static int digits(long v) {
+        int digits = 1;
+        while (v >= 10) {
+            v /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Write the coordinate (x,y).
+     *
+     * @param x
+     * @param y
+     * @return this
+     * @throws IOException
+     */
+    public PaintSaveFileWriter writePoint(int x, int y) throws IOException {
+        return this.write('(').writeInt(x).write(',').writeInt(y).write(')');
+    }
+
+    public void writeFileStart() throws IOException {
+        this.write("Paint Save File Version 1.0\n");
+    }
+
+    public void writeFileEnd() throws IOException {
+        this.write("End Paint Save File\n");
+    }
+}
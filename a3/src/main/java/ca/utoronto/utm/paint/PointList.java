@@ -0,0 +1,102 @@
+package ca.utoronto.utm.paint;
+
+import java.util.Arrays;
+
+/**
+ * A growable sequence of points, stored as interleaved x and y ints in a
+ * single array rather than as a Point object per vertex. Points are read
+ * through getX(i) and getY(i), which do not box or allocate. The smallest
+ * and largest coordinates are kept up to date as points are added.
+ */
+public class PointList {
+    private int[] coordinates = new int[16]; // x of point i at 2*i, y at 2*i+1
+    private int size = 0;
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int getX(int i) {
+        return this.coordinates[2 * i];
+    }
+
+    public int getY(int i) {
+        return this.coordinates[2 * i + 1];
+    }
+
+    public int getLastX() {
+        return this.coordinates[2 * this.size - 2];
+    }
+
+    public int getLastY() {
+        return this.coordinates[2 * this.size - 1];
+    }
+
+    public int getMinX() {
+        return this.minX;
+    }
+
+    public int getMinY() {
+        return this.minY;
+    }
+
+    public int getMaxX() {
+        return this.maxX;
+    }
+
+    public int getMaxY() {
+        return this.maxY;
+    }
+
+    public void add(int x, int y) {
+        if (2 * this.size == this.coordinates.length) {
+            this.coordinates = Arrays.copyOf(this.coordinates, 2 * this.coordinates.length);
+        }
+        this.coordinates[2 * this.size] = x;
+        this.coordinates[2 * this.size + 1] = y;
+        this.size++;
+        this.minX = Math.min(this.minX, x);
+        this.minY = Math.min(this.minY, y);
+        this.maxX = Math.max(this.maxX, x);
+        this.maxY = Math.max(this.maxY, y);
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return the coordinates of points from up to to, interleaved as they are stored
+     */
+    int[] copyRange(int from, int to) {
+        return Arrays.copyOfRange(this.coordinates, 2 * from, 2 * to);
+    }
+
+    /**
+     * Add the points whose coordinates are interleaved in coordinates.
+     *
+     * @param coordinates
+     */
+    void addAll(int[] coordinates) {
+        for (int i = 0; i + 1 < coordinates.length; i += 2) {
+            this.add(coordinates[i], coordinates[i + 1]);
+        }
+    }
+
+    /**
+     * Remove all but the first size points. The bounds are not recomputed,
+     * they are given: the smallest and largest coordinates of this when it
+     * last had size points.
+     */
+    void truncate(int size, int minX, int minY, int maxX, int maxY) {
+        this.size = size;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+}
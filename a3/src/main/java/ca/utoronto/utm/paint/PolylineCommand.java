@@ -1,14 +1,54 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 
 public class PolylineCommand extends SquiggleCommand {
     private Point previewPoint;  // temp point for previewing next segment
 
     protected void setPreviewPoint(Point point) {
+        this.changing();
         this.previewPoint = point;
-        this.setChanged();
-        this.notifyObservers();
+        this.changed();
+    }
+
+    @Override
+    UndoHistory.Change startChange() {
+        return new PolylineChange();
+    }
+
+    private class PolylineChange extends SquiggleChange {
+        private final Point oldPreviewPoint = previewPoint;
+        private Point newPreviewPoint;
+
+        @Override
+        public boolean finish() {
+            boolean squiggleChanged = super.finish();
+            this.newPreviewPoint = previewPoint;
+            return squiggleChanged || this.newPreviewPoint != this.oldPreviewPoint;
+        }
+
+        @Override
+        public void undo() {
+            super.undo();
+            setPreviewPoint(this.oldPreviewPoint);
+        }
+
+        @Override
+        public void redo() {
+            super.redo();
+            setPreviewPoint(this.newPreviewPoint);
+        }
+    }
+
+    @Override
+    PolylineCommand copy() {
+        PolylineCommand copy = this.copyStyleTo(new PolylineCommand());
+        copy.getPoints().addAll(this.getPoints().copyRange(0, this.getPoints().size()));
+        copy.previewPoint = this.previewPoint;
+        return copy;
     }
 
     @Override
@@ -17,30 +57,25 @@ public class PolylineCommand extends SquiggleCommand {
 
         // Draw the preview line (if any)
         if (!this.getPoints().isEmpty() && previewPoint != null) {
-            Point lastPoint = this.getPoints().getLast();
+            PointList points = this.getPoints();
             g.setStroke(this.getColor());
-            g.strokeLine(lastPoint.x, lastPoint.y, previewPoint.x, previewPoint.y);
+            g.strokeLine(points.getLastX(), points.getLastY(), previewPoint.x, previewPoint.y);
         }
     }
 
-    /**
-     * @return
-     */
     @Override
-    public String getPaintSaveFileString() {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("Polyline\n");
-
-        // Avoid rewriting the details by calling super's (SquiggleCommand's) method
-        String details = super.getPaintSaveFileString();
-        int startIndex = details.indexOf("Squiggle\n") + "Squiggle\n".length();
-        int endIndex = details.indexOf("End Squiggle\n");
-        details = details.substring(startIndex, endIndex);
-        sb.append(details);
-
-        sb.append("End Polyline\n");
+    public Rectangle2D getBounds() {
+        Rectangle2D bounds = super.getBounds();
+        if (bounds == null || previewPoint == null) return bounds;
+        double minX = Math.min(bounds.getMinX(), previewPoint.x), minY = Math.min(bounds.getMinY(), previewPoint.y);
+        double maxX = Math.max(bounds.getMaxX(), previewPoint.x), maxY = Math.max(bounds.getMaxY(), previewPoint.y);
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
 
-        return sb.toString();
+    @Override
+    public void writePaintSaveFile(PaintSaveFileWriter writer) throws IOException {
+        writer.write("Polyline\n");
+        this.writeStyleAndPoints(writer); // the same lines as a squiggle
+        writer.write("End Polyline\n");
     }
 }
@@ -19,9 +19,10 @@ public class PolylineManipulatorStrategy extends SquiggleManipulatorStrategy {
                 this.addCommand(polylineCommand);
                 isDrawing = true;
             }
-            this.getSquiggleCommand().add(new Point((int) e.getX(), (int) e.getY()));  // use the getter from superclass
+            this.getSquiggleCommand().add((int) e.getX(), (int) e.getY());  // use the getter from superclass
         } else if (e.isSecondaryButtonDown() && isDrawing) {  // end the current polyline if isDrawing
             ((PolylineCommand) this.getSquiggleCommand()).setPreviewPoint(null);
+            this.setActiveCommand(null);
             isDrawing = false;
         }
     }
@@ -38,4 +39,9 @@ public class PolylineManipulatorStrategy extends SquiggleManipulatorStrategy {
     public void mouseDragged(MouseEvent e) {
         // Override for no-op
     }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        // Override, as the polyline is still being drawn until the secondary button is pressed
+    }
 }
@@ -1,5 +1,8 @@
 package ca.utoronto.utm.paint;
 
+import java.io.IOException;
+
+import javafx.geometry.Rectangle2D;
 import javafx.scene.canvas.GraphicsContext;
 
 public class RectangleCommand extends PaintCommand {
@@ -8,8 +11,7 @@ public class RectangleCommand extends PaintCommand {
     public RectangleCommand(Point p1, Point p2) {
         this.p1 = p1;
         this.p2 = p2;
-        this.setChanged();
-        this.notifyObservers();
+        this.changed();
     }
 
     public Point getP1() {
@@ -17,9 +19,9 @@ public class RectangleCommand extends PaintCommand {
     }
 
     public void setP1(Point p1) {
+        this.changing();
         this.p1 = p1;
-        this.setChanged();
-        this.notifyObservers();
+        this.changed();
     }
 
     public Point getP2() {
@@ -27,9 +29,9 @@ public class RectangleCommand extends PaintCommand {
     }
 
     public void setP2(Point p2) {
+        this.changing();
         this.p2 = p2;
-        this.setChanged();
-        this.notifyObservers();
+        this.changed();
     }
 
     public Point getTopLeft() {
@@ -46,38 +48,70 @@ public class RectangleCommand extends PaintCommand {
         return (new Point(br.x - tl.x, br.y - tl.y));
     }
 
+    @Override
+    UndoHistory.Change startChange() {
+        return new RectangleChange();
+    }
+
+    private class RectangleChange extends StyleChange {
+        private final Point oldP1 = p1, oldP2 = p2;
+        private Point newP1, newP2;
+
+        @Override
+        public boolean finish() {
+            boolean styleChanged = super.finish();
+            this.newP1 = p1;
+            this.newP2 = p2;
+            return styleChanged || this.newP1 != this.oldP1 || this.newP2 != this.oldP2;
+        }
+
+        @Override
+        public void undo() {
+            super.undo();
+            setP1(this.oldP1);
+            setP2(this.oldP2);
+        }
+
+        @Override
+        public void redo() {
+            super.redo();
+            setP1(this.newP1);
+            setP2(this.newP2);
+        }
+    }
+
+    @Override
+    RectangleCommand copy() {
+        return this.copyStyleTo(new RectangleCommand(this.p1, this.p2));
+    }
+
     @Override
     public void execute(GraphicsContext g) {
-        Point topLeft = this.getTopLeft();
-        Point dimensions = this.getDimensions();
+        Rectangle2D bounds = this.getBounds();
         if (this.isFill()) {
             g.setFill(this.getColor());
-            g.fillRect(topLeft.x, topLeft.y, dimensions.x, dimensions.y);
+            g.fillRect(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
         } else {
             g.setStroke(this.getColor());
-            g.strokeRect(topLeft.x, topLeft.y, dimensions.x, dimensions.y);
+            g.strokeRect(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
         }
     }
 
-    /**
-     * @return
-     */
     @Override
-    public String getPaintSaveFileString() {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append("Rectangle\n");
-
-        // Reuse common details in PaintCommand:
-        String details = super.getPaintSaveFileString();
-        int startIndex  = details.indexOf("color:");
-        details = details.substring (startIndex);
-        sb.append(details);
-
-        sb.append("\tp1:(").append(this.getP1().x).append(",").append(this.getP1().y).append(")\n");
-        sb.append("\tp2:(").append(this.getP2().x).append(",").append(this.getP2().y).append(")\n");
-        sb.append("End Rectangle\n");
+    public Rectangle2D getBounds() {
+        if (this.p1 == null || this.p2 == null) return null;
+        // In double, as the width of corners more than Integer.MAX_VALUE apart overflows an int
+        double minX = Math.min(this.p1.x, this.p2.x), minY = Math.min(this.p1.y, this.p2.y);
+        double maxX = Math.max(this.p1.x, this.p2.x), maxY = Math.max(this.p1.y, this.p2.y);
+        return new Rectangle2D(minX, minY, maxX - minX, maxY - minY);
+    }
 
-        return sb.toString();
+    @Override
+    public void writePaintSaveFile(PaintSaveFileWriter writer) throws IOException {
+        writer.write("Rectangle\n");
+        this.writeStyle(writer);
+        writer.write("\tp1:").writePoint(this.getP1().x, this.getP1().y).write('\n');
+        writer.write("\tp2:").writePoint(this.getP2().x, this.getP2().y).write('\n');
+        writer.write("End Rectangle\n");
     }
 }
@@ -24,4 +24,9 @@ class RectangleManipulatorStrategy extends ShapeManipulatorStrategy {
         ;
         this.addCommand(rectangleCommand);
     }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        this.setActiveCommand(null); // finished with this shape
+    }
 }
@@ -0,0 +1,87 @@
+package ca.utoronto.utm.paint;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javafx.concurrent.Task;
+
+/**
+ * Saves commands to a file in the background: in the binary format if the
+ * file name ends with PaintBinaryFile.EXTENSION, otherwise in Version 1.0 of
+ * the text format. Progress is the number of commands written. The file is
+ * replaced through an AtomicFile, so if the save fails or is cancelled the
+ * file keeps its old contents.
+ *
+ * Each command is copied when the task is made, on the JavaFX Application
+ * Thread, so the drawing can go on being edited while it is saved: the file
+ * holds the drawing as it was when the save began.
+ */
+class SavePaintFileTask extends Task<Void> {
+    private static final int PROGRESS_INTERVAL = 256; // commands written between updates
+
+    private final File file;
+    private final List<PaintCommand> commands;
+
+    /**
+     * Call on the thread the commands are changed on.
+     *
+     * @param file
+     * @param commands
+     */
+    SavePaintFileTask(File file, List<PaintCommand> commands) {
+        this.file = file;
+        this.commands = new ArrayList<PaintCommand>(commands.size());
+        for (PaintCommand command : commands) {
+            this.commands.add(command.copy());
+        }
+    }
+
+    /**
+     * Passes bytes on to out until the task is cancelled.
+     */
+    private class CancellableOutputStream extends FilterOutputStream {
+        CancellableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (isCancelled()) throw new InterruptedIOException("Save cancelled");
+            this.out.write(b, off, len);
+        }
+    }
+
+    @Override
+    protected Void call() throws IOException {
+        AtomicFile.write(this.file.toPath(), fileOut -> {
+            OutputStream out = new CancellableOutputStream(fileOut);
+            if (this.file.getName().endsWith(PaintBinaryFile.EXTENSION)) {
+                PaintBinaryFile.save(out, this.commands);
+            } else {
+                this.saveText(out);
+            }
+        });
+        this.updateProgress(this.commands.size(), this.commands.size());
+        return null;
+    }
+
+    private void saveText(OutputStream out) throws IOException {
+        PaintSaveFileWriter writer = new PaintSaveFileWriter(out);
+        int n = this.commands.size();
+        writer.writeFileStart();
+        for (int i = 0; i < n; i++) {
+            this.commands.get(i).writePaintSaveFile(writer);
+            if (i % PROGRESS_INTERVAL == 0) {
+                if (this.isCancelled()) throw new InterruptedIOException("Save cancelled");
+                this.updateProgress(i, n);
+            }
+        }
+        writer.writeFileEnd();
+        writer.flush();
+    }
+}
@@ -29,6 +29,6 @@ public class ShapeChooserPanel extends GridPane implements EventHandler<ActionEv
     public void handle(ActionEvent event) {
         String command = ((Button) event.getSource()).getText();
         this.view.setPaintPanelShapeManipulatorStrategy(ShapeManipulatorFactory.create(command, view.getPaintModel()));
-        System.out.println(command);
+        Trace.debug(command);
     }
 }
@@ -6,15 +6,40 @@ import javafx.scene.input.MouseEvent;
 
 public class ShapeManipulatorStrategy implements EventHandler<MouseEvent> {
     private PaintModel paintModel;
+    private PaintCommand activeCommand; // the command still being edited, if any
 
     ShapeManipulatorStrategy(PaintModel paintModel) {
         this.paintModel = paintModel;
     }
 
+    /**
+     * Add command to the model, as the command now being edited. Until it is
+     * finished, its changes are recorded as a single edit.
+     *
+     * @param command
+     */
     void addCommand(PaintCommand command) {
+        if (this.paintModel.getHistory() != null) {
+            this.paintModel.getHistory().beginEdit();
+        }
+        this.activeCommand = command;
         this.paintModel.addCommand(command);
     }
 
+    /**
+     * @return the command this is still editing, or null once it is finished
+     */
+    public PaintCommand getActiveCommand() {
+        return this.activeCommand;
+    }
+
+    protected void setActiveCommand(PaintCommand command) {
+        if (command == null && this.activeCommand != null && this.paintModel.getHistory() != null) {
+            this.paintModel.getHistory().endEdit(); // the shape is finished
+        }
+        this.activeCommand = command;
+    }
+
     @Override
     public void handle(MouseEvent event) {
         if (event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
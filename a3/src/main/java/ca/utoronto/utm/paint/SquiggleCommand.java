@@ -1,55 +1,156 @@
 package ca.utoronto.utm.paint;
 
-import javafx.scene.canvas.GraphicsContext;
+import java.io.IOException;
 
-import java.util.ArrayList;
+import javafx.geometry.Rectangle2D;
+import javafx.scene.canvas.GraphicsContext;
 
 public class SquiggleCommand extends PaintCommand {
-    private ArrayList<Point> points = new ArrayList<Point>();
+    /**
+     * The most points passed to a single strokePolyline. Longer squiggles
+     * are drawn as several polylines, each starting at the end of the last.
+     */
+    static final int POLYLINE_CHUNK = 4096;
+
+    /**
+     * Receives the polylines a squiggle is drawn as, such as GraphicsContext::strokePolyline.
+     */
+    interface PolylineSink {
+        void strokePolyline(double[] xPoints, double[] yPoints, int nPoints);
+    }
+
+    // Reused by every execute on a thread, as execute may run off the JavaFX Application
+    // Thread, as in the benchmarks; strokePolyline copies the coordinates, so they may be
+    // overwritten after it returns. The x coordinates, then the y.
+    private static final ThreadLocal<double[][]> buffers =
+            ThreadLocal.withInitial(() -> new double[][]{new double[POLYLINE_CHUNK], new double[POLYLINE_CHUNK]});
+
+    private PointList points = new PointList();
 
     public void add(Point p) {
-        this.points.add(p);
-        this.setChanged();
-        this.notifyObservers();
+        this.add(p.x, p.y);
     }
 
-    public ArrayList<Point> getPoints() {
+    public void add(int x, int y) {
+        this.changing();
+        this.points.add(x, y);
+        this.changed();
+    }
+
+    public PointList getPoints() {
         return this.points;
     }
 
+    @Override
+    UndoHistory.Change startChange() {
+        return new SquiggleChange();
+    }
+
+    /**
+     * Points are only ever added, so a change records just the points added
+     * since it started, and is undone by truncating back to the old size.
+     */
+    class SquiggleChange extends StyleChange {
+        private final int oldSize = points.size();
+        private final int oldMinX = points.getMinX(), oldMinY = points.getMinY();
+        private final int oldMaxX = points.getMaxX(), oldMaxY = points.getMaxY();
+        private int[] added; // interleaved coordinates
+
+        @Override
+        public boolean finish() {
+            boolean styleChanged = super.finish();
+            this.added = points.copyRange(this.oldSize, points.size());
+            return styleChanged || this.added.length > 0;
+        }
+
+        @Override
+        public void undo() {
+            super.undo();
+            points.truncate(this.oldSize, this.oldMinX, this.oldMinY, this.oldMaxX, this.oldMaxY);
+            changed();
+        }
+
+        @Override
+        public void redo() {
+            super.redo();
+            points.addAll(this.added);
+            changed();
+        }
+
+        @Override
+        public long size() {
+            return super.size() + 4L * this.added.length;
+        }
+    }
+
+    @Override
+    SquiggleCommand copy() {
+        SquiggleCommand copy = this.copyStyleTo(new SquiggleCommand());
+        copy.points.addAll(this.points.copyRange(0, this.points.size()));
+        return copy;
+    }
+
     @Override
     public void execute(GraphicsContext g) {
-        ArrayList<Point> points = this.getPoints();
+        if (this.getPoints().size() < 2) return;
         g.setStroke(this.getColor());
-        for (int i = 0; i < points.size() - 1; i++) {
-            Point p1 = points.get(i);
-            Point p2 = points.get(i + 1);
-            g.strokeLine(p1.x, p1.y, p2.x, p2.y);
-        }
+        this.strokePolylines(g::strokePolyline);
     }
 
     /**
-     * @return
+     * Pass the points to sink as polylines of at most POLYLINE_CHUNK points:
+     * one render operation per chunk of points, rather than one strokeLine per segment.
+     *
+     * @param sink
+     * @return the number of polylines passed
      */
-    @Override
-    public String getPaintSaveFileString() {
-        StringBuilder sb = new StringBuilder();
+    int strokePolylines(PolylineSink sink) {
+        PointList points = this.getPoints();
+        int n = points.size();
+        double[][] buffer = buffers.get();
+        double[] xBuffer = buffer[0], yBuffer = buffer[1];
+        int polylines = 0;
+        for (int start = 0; start < n - 1; ) {
+            int end = Math.min(start + POLYLINE_CHUNK, n);
+            for (int i = start; i < end; i++) {
+                xBuffer[i - start] = points.getX(i);
+                yBuffer[i - start] = points.getY(i);
+            }
+            sink.strokePolyline(xBuffer, yBuffer, end - start);
+            polylines++;
+            start = end - 1;
+        }
+        return polylines;
+    }
 
-        sb.append("Squiggle\n");
+    @Override
+    public Rectangle2D getBounds() {
+        PointList points = this.getPoints();
+        if (points.isEmpty()) return null;
+        // In double, as the width of points more than Integer.MAX_VALUE apart overflows an int
+        return new Rectangle2D(points.getMinX(), points.getMinY(),
+                (double) points.getMaxX() - points.getMinX(), (double) points.getMaxY() - points.getMinY());
+    }
 
-        // Grab common details from PaintCommand:
-        String details = super.getPaintSaveFileString();
-        int startIndex = details.indexOf("color:");
-        details = details.substring(startIndex);
-        sb.append(details);
+    @Override
+    public void writePaintSaveFile(PaintSaveFileWriter writer) throws IOException {
+        writer.write("Squiggle\n");
+        this.writeStyleAndPoints(writer);
+        writer.write("End Squiggle\n");
+    }
 
-        sb.append("\tpoints\n");
-        for (Point point : points) {
-            sb.append("\t\tpoint:(").append(point.x).append(",").append(point.y).append(")\n");
+    /**
+     * Write the lines of the block shared with PolylineCommand, between its first and last.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    protected void writeStyleAndPoints(PaintSaveFileWriter writer) throws IOException {
+        this.writeStyle(writer);
+        writer.write("\tpoints\n");
+        for (int i = 0; i < points.size(); i++) {
+            writer.write("\t\tpoint:").writePoint(points.getX(i), points.getY(i)).write('\n');
         }
-        sb.append("\tend points\n");
-        sb.append("End Squiggle\n");
-
-        return sb.toString();
+        writer.write("\tend points\n");
     }
 }
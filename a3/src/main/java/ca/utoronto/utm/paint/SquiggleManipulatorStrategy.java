@@ -11,7 +11,7 @@ class SquiggleManipulatorStrategy extends ShapeManipulatorStrategy {
 
     @Override
     public void mouseDragged(MouseEvent e) {
-        this.squiggleCommand.add(new Point((int) e.getX(), (int) e.getY()));
+        this.squiggleCommand.add((int) e.getX(), (int) e.getY());
     }
 
     @Override
@@ -27,4 +27,9 @@ class SquiggleManipulatorStrategy extends ShapeManipulatorStrategy {
     protected void setSquiggleCommand(SquiggleCommand squiggleCommand) {
         this.squiggleCommand = squiggleCommand;
     }
+
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        this.setActiveCommand(null); // finished with this shape
+    }
 }
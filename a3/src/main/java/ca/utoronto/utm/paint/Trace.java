@@ -0,0 +1,79 @@
+package ca.utoronto.utm.paint;
+
+/**
+ * A lightweight tracing facility. A message is passed to the Sink only if
+ * tracing is enabled at its Level. Tracing is off unless the system property
+ * paint.trace names a Level (for example -Dpaint.trace=DEBUG), or setLevel is
+ * called. Code on a hot path should check isEnabled once, before building any
+ * message, so tracing costs nothing while it is off.
+ */
+public final class Trace {
+    /**
+     * From least to most detailed; tracing at a Level includes the Levels before it.
+     */
+    public enum Level {OFF, ERROR, INFO, DEBUG}
+
+    /**
+     * Where enabled messages go.
+     */
+    public interface Sink {
+        public void trace(Level level, String message);
+    }
+
+    /**
+     * The default Sink, printing each message on its own line of standard output
+     */
+    public static final Sink STANDARD_OUTPUT = (level, message) -> System.out.println(message);
+
+    private static volatile Level level = initialLevel();
+    private static volatile Sink sink = STANDARD_OUTPUT;
+
+    private Trace() {
+    }
+
+    private static Level initialLevel() {
+        try {
+            return Level.valueOf(System.getProperty("paint.trace", "OFF").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.OFF;
+        }
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level level) {
+        Trace.level = level;
+    }
+
+    public static void setSink(Sink sink) {
+        Trace.sink = sink;
+    }
+
+    /**
+     * @param level
+     * @return whether messages at level are currently traced
+     */
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(Trace.level) <= 0;
+    }
+
+    public static void error(String message) {
+        trace(Level.ERROR, message);
+    }
+
+    public static void info(String message) {
+        trace(Level.INFO, message);
+    }
+
+    public static void debug(String message) {
+        trace(Level.DEBUG, message);
+    }
+
+    private static void trace(Level level, String message) {
+        if (isEnabled(level)) {
+            sink.trace(level, message);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Records the changes to a PaintModel so they can be undone and redone.
+ *
+ * Nothing is copied up front. An added or removed command is recorded with
+ * its position, and a changed command records only what it needs to put
+ * itself back: a circle or rectangle its old and new values, a squiggle its
+ * old size and the points added since. Undoing or redoing an edit therefore
+ * takes time proportional to the edit, not to the drawing.
+ *
+ * The changes between beginEdit and endEdit, such as those made while
+ * dragging out a shape, form a single edit. A change made outside of one is
+ * an edit by itself. The edits are kept within a budget of bytes, and the
+ * oldest are forgotten when it is exceeded. Sizes are estimates of the memory
+ * an edit holds beyond what the model already holds.
+ */
+public final class UndoHistory {
+    /**
+     * The default budget, a few hundred thousand shapes or a few million squiggle points
+     */
+    public static final long DEFAULT_BYTE_BUDGET = 16L << 20;
+
+    /**
+     * The size of an edit that holds no points
+     */
+    static final long EDIT_SIZE = 48;
+
+    /**
+     * A change that can be undone, and then redone.
+     */
+    interface Edit {
+        public void undo();
+
+        public void redo();
+
+        /**
+         * @return the approximate number of bytes this holds
+         */
+        public long size();
+    }
+
+    /**
+     * An Edit started before a command changes, and finished once it has.
+     */
+    interface Change extends Edit {
+        /**
+         * Record the new state of the command.
+         *
+         * @return whether the command is now different
+         */
+        public boolean finish();
+    }
+
+    /**
+     * The Edits making up one undoable edit, undone in reverse order.
+     */
+    private static class CompoundEdit {
+        private final boolean implicit; // a single change, ended as soon as it is made
+        private final ArrayList<Edit> edits = new ArrayList<Edit>();
+        private final IdentityHashMap<PaintCommand, Change> changes = new IdentityHashMap<PaintCommand, Change>();
+        private long size = EDIT_SIZE;
+
+        CompoundEdit(boolean implicit) {
+            this.implicit = implicit;
+        }
+    }
+
+    private class Added implements Edit {
+        final PaintCommand command;
+        final int index;
+        final long order;
+
+        Added(PaintCommand command, int index, long order) {
+            this.command = command;
+            this.index = index;
+            this.order = order;
+        }
+
+        @Override
+        public void undo() {
+            model.removeCommand(this.command);
+        }
+
+        @Override
+        public void redo() {
+            model.insertCommand(this.index, this.command, this.order);
+        }
+
+        @Override
+        public long size() {
+            return EDIT_SIZE;
+        }
+    }
+
+    private class Removed extends Added {
+        Removed(PaintCommand command, int index, long order) {
+            super(command, index, order);
+        }
+
+        @Override
+        public void undo() {
+            super.redo();
+        }
+
+        @Override
+        public void redo() {
+            super.undo();
+        }
+
+        @Override
+        public long size() {
+            // The command is now only held by this
+            if (this.command instanceof SquiggleCommand squiggle) {
+                return EDIT_SIZE + 8L * squiggle.getPoints().size();
+            }
+            return 2 * EDIT_SIZE;
+        }
+    }
+
+    private final PaintModel model;
+    private long byteBudget;
+    private long size = 0; // of all the edits in undoEdits and redoEdits
+    private ArrayDeque<CompoundEdit> undoEdits = new ArrayDeque<CompoundEdit>(); // the last is undone first
+    private ArrayDeque<CompoundEdit> redoEdits = new ArrayDeque<CompoundEdit>(); // the last is redone first
+    private CompoundEdit edit; // the edit being recorded, if any
+    private boolean applying = false; // whether an edit is being undone or redone, rather than recorded
+
+    /**
+     * Record the changes to model from now on.
+     *
+     * @param model
+     * @param byteBudget the most bytes the recorded edits may hold
+     */
+    public UndoHistory(PaintModel model, long byteBudget) {
+        this.model = model;
+        this.byteBudget = byteBudget;
+        model.setHistory(this);
+    }
+
+    public long getByteBudget() {
+        return this.byteBudget;
+    }
+
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = byteBudget;
+        this.trim();
+    }
+
+    /**
+     * @return the approximate number of bytes held by the recorded edits
+     */
+    public long getSize() {
+        return this.size;
+    }
+
+    public boolean canUndo() {
+        return !this.undoEdits.isEmpty() || this.edit != null;
+    }
+
+    public boolean canRedo() {
+        return !this.redoEdits.isEmpty();
+    }
+
+    /**
+     * Group the changes from now until endEdit into one edit. An edit
+     * already begun is ended first.
+     */
+    public void beginEdit() {
+        this.endEdit();
+        this.edit = new CompoundEdit(false);
+    }
+
+    /**
+     * End the edit being recorded, if any, so it can be undone.
+     */
+    public void endEdit() {
+        CompoundEdit edit = this.edit;
+        if (edit == null) return;
+        this.edit = null;
+
+        // Drop the changes that left their command as it was
+        ArrayList<Edit> edits = new ArrayList<Edit>(edit.edits.size());
+        for (Edit e : edit.edits) {
+            if (!(e instanceof Change change) || change.finish()) {
+                edits.add(e);
+                edit.size += e.size();
+            }
+        }
+        if (edits.isEmpty()) return;
+        edit.edits.clear();
+        edit.edits.addAll(edits);
+        edit.changes.clear();
+
+        for (CompoundEdit redone : this.redoEdits) {
+            this.size -= redone.size;
+        }
+        this.redoEdits.clear(); // they followed the edits before this one
+        this.undoEdits.addLast(edit);
+        this.size += edit.size;
+        this.trim();
+    }
+
+    /**
+     * Forget the oldest edits until the rest fit in the budget, those that
+     * could be undone before those that could be redone.
+     */
+    private void trim() {
+        while (this.size > this.byteBudget && !this.undoEdits.isEmpty()) {
+            this.size -= this.undoEdits.removeFirst().size;
+        }
+        while (this.size > this.byteBudget && !this.redoEdits.isEmpty()) {
+            this.size -= this.redoEdits.removeFirst().size;
+        }
+    }
+
+    /**
+     * Forget every edit.
+     */
+    public void clear() {
+        this.edit = null;
+        this.undoEdits.clear();
+        this.redoEdits.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Undo the last edit, ending it first if it is still being recorded.
+     *
+     * @return whether there was an edit to undo
+     */
+    public boolean undo() {
+        this.endEdit();
+        CompoundEdit edit = this.undoEdits.pollLast();
+        if (edit == null) return false;
+        this.applying = true;
+        try {
+            for (int i = edit.edits.size() - 1; i >= 0; i--) {
+                edit.edits.get(i).undo();
+            }
+        } finally {
+            this.applying = false;
+        }
+        this.redoEdits.addLast(edit);
+        return true;
+    }
+
+    /**
+     * Redo the last edit undone.
+     *
+     * @return whether there was an edit to redo
+     */
+    public boolean redo() {
+        this.endEdit();
+        CompoundEdit edit = this.redoEdits.pollLast();
+        if (edit == null) return false;
+        this.applying = true;
+        try {
+            for (Edit e : edit.edits) {
+                e.redo();
+            }
+        } finally {
+            this.applying = false;
+        }
+        this.undoEdits.addLast(edit);
+        return true;
+    }
+
+    private CompoundEdit recording() {
+        if (this.edit == null) {
+            this.edit = new CompoundEdit(true);
+        }
+        return this.edit;
+    }
+
+    void commandAdded(PaintCommand command, int index, long order) {
+        if (this.applying) return;
+        this.recording().edits.add(new Added(command, index, order));
+    }
+
+    void commandRemoved(PaintCommand command, int index, long order) {
+        if (this.applying) return;
+        this.recording().edits.add(new Removed(command, index, order));
+    }
+
+    /**
+     * Start recording a change to command, unless it has already changed during this edit.
+     *
+     * @param command
+     */
+    void commandChanging(PaintCommand command) {
+        if (this.applying) return;
+        CompoundEdit edit = this.recording();
+        if (!edit.changes.containsKey(command)) {
+            Change change = command.startChange();
+            edit.changes.put(command, change);
+            edit.edits.add(change);
+        }
+    }
+
+    void commandChanged(PaintCommand command) {
+        if (!this.applying && this.edit != null && this.edit.implicit) {
+            this.endEdit();
+        }
+    }
+}
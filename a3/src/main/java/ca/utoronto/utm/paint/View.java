@@ -1,29 +1,79 @@
 package ca.utoronto.utm.paint;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import javafx.application.Platform;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
+import javafx.geometry.Insets;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.SeparatorMenuItem;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 public class View implements EventHandler<ActionEvent> {
 
+    /**
+     * The most bytes the undo history may hold, which can be set with the
+     * system property paint.undo.bytes
+     */
+    private static final long UNDO_BYTE_BUDGET = Long.getLong("paint.undo.bytes", UndoHistory.DEFAULT_BYTE_BUDGET);
+
+    /**
+     * Runs file operations, each on its own virtual thread, off the JavaFX Application Thread
+     */
+    private static final ExecutorService fileExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
     private PaintModel paintModel;
+    private UndoHistory history;
+    private AutosaveJournal autosave; // of the drawing, if any
     private PaintPanel paintPanel;
     private ShapeChooserPanel shapeChooserPanel;
     private Stage stage;
 
+    // Shows the progress of the file operation running, if any
+    private HBox statusBar;
+    private Label statusLabel;
+    private ProgressBar progressBar;
+    private Button cancelButton;
+    private Task<?> fileTask; // the file operation running, if any
+    private List<MenuItem> fileTaskItems = new ArrayList<MenuItem>(); // start a file operation, so disabled while one runs
+    private OllamaPaint ollama; // once asked to draw
+
     public View(PaintModel model, Stage stage) {
+        this(model, stage, null);
+    }
+
+    /**
+     * @param model
+     * @param stage
+     * @param autosave journals each drawing shown, or null not to autosave
+     */
+    public View(PaintModel model, Stage stage, AutosaveJournal autosave) {
         this.stage = stage;
         this.paintModel = model;
+        this.history = new UndoHistory(model, UNDO_BYTE_BUDGET);
+        this.autosave = autosave;
+        if (autosave != null) {
+            autosave.attach(model);
+        }
         initUI(stage);
     }
 
@@ -31,9 +81,22 @@ public class View implements EventHandler<ActionEvent> {
         return this.paintModel;
     }
 
+    /**
+     * Show paintModel in place of the drawing shown, stopping any drawing
+     * with Ollama into the drawing replaced.
+     *
+     * @param paintModel
+     */
     public void setPaintModel(PaintModel paintModel) {
+        if (this.fileTask instanceof DrawWithOllamaTask) {
+            this.fileTask.cancel();
+        }
         this.paintModel = paintModel;
+        this.history = new UndoHistory(paintModel, UNDO_BYTE_BUDGET); // a new drawing, nothing to undo
         this.paintPanel.setPaintModel(paintModel);
+        if (this.autosave != null) {
+            this.autosave.attach(paintModel);
+        }
     }
 
     private void initUI(Stage stage) {
@@ -45,6 +108,7 @@ public class View implements EventHandler<ActionEvent> {
         root.setTop(createMenuBar());
         root.setCenter(this.paintPanel);
         root.setLeft(this.shapeChooserPanel);
+        root.setBottom(createStatusBar());
 
         Scene scene = new Scene(root);
         stage.setScene(scene);
@@ -60,6 +124,72 @@ public class View implements EventHandler<ActionEvent> {
         return shapeChooserPanel;
     }
 
+    private HBox createStatusBar() {
+        this.statusLabel = new Label();
+        this.progressBar = new ProgressBar();
+        this.cancelButton = new Button("Cancel");
+        this.cancelButton.setOnAction(event -> {
+            if (this.fileTask != null) this.fileTask.cancel();
+        });
+
+        this.statusBar = new HBox(8, this.statusLabel, this.progressBar, this.cancelButton);
+        this.statusBar.setPadding(new Insets(4));
+        this.statusBar.setVisible(false);
+        this.statusBar.setManaged(false); // takes no space while hidden
+        return this.statusBar;
+    }
+
+    /**
+     * Run task in the background, showing its progress in the status bar
+     * until it is done, and an error alert if it fails. onSucceeded runs on
+     * the JavaFX Application Thread.
+     *
+     * @param task
+     * @param description shown while it runs
+     * @param onSucceeded
+     */
+    private <T> void runFileTask(Task<T> task, String description, Consumer<T> onSucceeded) {
+        this.fileTask = task;
+        this.statusLabel.setText(description);
+        this.progressBar.progressProperty().bind(task.progressProperty());
+        for (MenuItem item : this.fileTaskItems) {
+            item.setDisable(true);
+        }
+        this.statusBar.setManaged(true);
+        this.statusBar.setVisible(true);
+
+        task.setOnSucceeded(event -> {
+            this.fileTaskDone();
+            onSucceeded.accept(task.getValue());
+        });
+        task.setOnFailed(event -> {
+            this.fileTaskDone();
+            Throwable e = task.getException();
+            String message = e.getMessage() != null ? e.getMessage() : e.toString();
+            Trace.error(description + " failed: " + message);
+            // Trace is off unless asked for, so tell the user
+            Alert alert = new Alert(Alert.AlertType.ERROR, message);
+            alert.setHeaderText(description + " failed");
+            alert.initOwner(this.stage);
+            alert.show();
+        });
+        task.setOnCancelled(event -> {
+            this.fileTaskDone();
+            Trace.info(description + " cancelled.");
+        });
+        fileExecutor.submit(task);
+    }
+
+    private void fileTaskDone() {
+        this.fileTask = null;
+        this.progressBar.progressProperty().unbind();
+        for (MenuItem item : this.fileTaskItems) {
+            item.setDisable(false);
+        }
+        this.statusBar.setVisible(false);
+        this.statusBar.setManaged(false);
+    }
+
     private MenuBar createMenuBar() {
 
         MenuBar menuBar = new MenuBar();
@@ -76,10 +206,12 @@ public class View implements EventHandler<ActionEvent> {
 
         menuItem = new MenuItem("Open");
         menuItem.setOnAction(this);
+        this.fileTaskItems.add(menuItem);
         menu.getItems().add(menuItem);
 
         menuItem = new MenuItem("Save");
         menuItem.setOnAction(this);
+        this.fileTaskItems.add(menuItem);
         menu.getItems().add(menuItem);
 
         menu.getItems().add(new SeparatorMenuItem());
@@ -118,6 +250,16 @@ public class View implements EventHandler<ActionEvent> {
 
         menuBar.getMenus().add(menu);
 
+        // Another menu for Ollama
+        menu = new Menu("Ollama");
+
+        menuItem = new MenuItem("Draw...");
+        menuItem.setOnAction(this);
+        this.fileTaskItems.add(menuItem);
+        menu.getItems().add(menuItem);
+
+        menuBar.getMenus().add(menu);
+
         return menuBar;
     }
 
@@ -127,7 +269,7 @@ public class View implements EventHandler<ActionEvent> {
 
     @Override
     public void handle(ActionEvent event) {
-        System.out.println(((MenuItem) event.getSource()).getText());
+        Trace.debug(((MenuItem) event.getSource()).getText());
         String command = ((MenuItem) event.getSource()).getText();
 
         // Set the default initial directory to the user's home folder:
@@ -141,7 +283,12 @@ public class View implements EventHandler<ActionEvent> {
         } catch (Exception e) {
             // Fallback to the root directory as a last resort:
             homeFolder = new File(File.separator);
-            System.out.println("Failed to find home directory, falling back to root directory.");
+            Trace.info("Failed to find home directory, falling back to root directory.");
+        }
+
+        if ((command.equals("Open") || command.equals("Save") || command.equals("Draw...")) && this.fileTask != null) {
+            Trace.info("Wait for the file operation in progress to finish, or cancel it.");
+            return;
         }
 
         if (command.equals("Open")) {
@@ -152,26 +299,19 @@ public class View implements EventHandler<ActionEvent> {
             fc.setInitialDirectory(homeFolder);
             fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text Documents (*.txt)", "*.txt"));
             fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Paint Save File Format Files (*.pssf)", "*.pssf"));
+            fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Binary Paint Save Files (*.pssb)", "*.pssb"));
 
             File file = fc.showOpenDialog(this.stage);
 
             if (file != null) {
-                try {
-                    System.out.println("Opening: " + file.getName() + "." + "\n");
-                    BufferedReader bufferedReader = new BufferedReader(new FileReader(file));
-                    PaintModel newModel = new PaintModel();
-                    PaintFileParser parser = new PaintFileParser();
-                    if (parser.parse(bufferedReader, newModel)) {
-                        this.setPaintModel(newModel);
-                        System.out.println("File loaded successfully.");
-                    } else {
-                        System.out.println("Error while loading file: " + parser.getErrorMessage());
-                    }
-                } catch (IOException e) {
-                    System.out.println("Parsing issue.");
-                }
+                Trace.info("Opening: " + file.getName() + "." + "\n");
+                // The drawing is only replaced once the whole file has been parsed
+                this.runFileTask(new OpenPaintFileTask(file), "Opening " + file.getName(), newModel -> {
+                    this.setPaintModel(newModel);
+                    Trace.info("File loaded successfully.");
+                });
             } else {
-                System.out.println("Open command cancelled by user." + "\n");
+                Trace.info("Open command cancelled by user." + "\n");
             }
         } else if (command.equals("Save")) {
             FileChooser fc = new FileChooser();
@@ -181,30 +321,53 @@ public class View implements EventHandler<ActionEvent> {
             fc.setInitialDirectory(homeFolder);
             fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text Documents (*.txt)", "*.txt"));
             fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Paint Save File Format Files (*.pssf)", "*.pssf"));
+            fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Binary Paint Save Files (*.pssb)", "*.pssb"));
 
             File file = fc.showSaveDialog(this.stage);
 
             if (file != null) {
                 // This is where a real application would open the file.
 
-                PrintWriter writer = null;
-                try {
-                    System.out.println("Saving: " + file.getName() + "." + "\n");
-                    writer = new PrintWriter(file);
-                    View.save(writer, this.paintModel);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    if (writer != null) {
-                        writer.close();
-                    }
-                }
+                Trace.info("Saving: " + file.getName() + "." + "\n");
+                this.runFileTask(new SavePaintFileTask(file, this.paintModel.getCommands()), "Saving " + file.getName(),
+                        nothing -> Trace.info("File saved successfully."));
             } else {
-                System.out.println("Save command cancelled by user." + "\n");
+                Trace.info("Save command cancelled by user." + "\n");
+            }
+        } else if (command.equals("Draw...")) {
+            TextInputDialog dialog = new TextInputDialog();
+            dialog.setTitle("Draw with Ollama");
+            dialog.setHeaderText("What should Ollama draw?");
+            dialog.initOwner(this.stage);
+            String prompt = dialog.showAndWait().orElse("").strip();
+            if (prompt.isEmpty()) {
+                Trace.info("Draw command cancelled by user.");
+                return;
+            }
+            if (this.ollama == null) {
+                this.ollama = new OllamaPaint(OllamaPaint.HOST);
             }
+            // The shapes are added to the drawing shown as they are generated, as one edit
+            OllamaPaintStream stream = this.ollama.streamInto(this.paintModel, Platform::runLater);
+            DrawWithOllamaTask task = new DrawWithOllamaTask(stream, prompt);
+            UndoHistory history = this.history;
+            history.beginEdit();
+            EventHandler<WorkerStateEvent> endEdit = done -> history.endEdit();
+            task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, endEdit);
+            task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, endEdit);
+            task.addEventHandler(WorkerStateEvent.WORKER_STATE_CANCELLED, endEdit);
+            this.runFileTask(task, "Drawing " + prompt, shapes -> Trace.info("Drew " + shapes + " shapes."));
         } else if (command.equals("New")) {
             // this.paintModel.reset();
             this.setPaintModel(new PaintModel());
+        } else if (command.equals("Undo")) {
+            if (!this.history.undo()) {
+                Trace.info("Nothing to undo.");
+            }
+        } else if (command.equals("Redo")) {
+            if (!this.history.redo()) {
+                Trace.info("Nothing to redo.");
+            }
         } else if (command.equals("Exit")) {
             Platform.exit();
         }
@@ -2,6 +2,7 @@ module ca.utoronto.utm.paint {
     requires javafx.controls;
     requires javafx.fxml;
     requires org.json;
+    requires java.net.http;
 
 
     opens ca.utoronto.utm.paint to javafx.fxml;
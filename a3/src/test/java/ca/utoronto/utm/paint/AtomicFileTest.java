@@ -0,0 +1,43 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AtomicFileTest {
+
+    private long filesIn(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void replacesTheContents(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("drawing.txt");
+        AtomicFile.write(file, out -> out.write("first".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("first", Files.readString(file));
+        AtomicFile.write(file, out -> out.write("second".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("second", Files.readString(file));
+        assertEquals(1, filesIn(directory), "No temporary file left");
+    }
+
+    @Test
+    public void failedWriteLeavesTheOriginal(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("drawing.txt");
+        Files.writeString(file, "original");
+        IOException thrown = assertThrows(IOException.class, () -> AtomicFile.write(file, out -> {
+            out.write("half of the new".getBytes(StandardCharsets.US_ASCII));
+            throw new IOException("disk full");
+        }));
+        assertEquals("disk full", thrown.getMessage());
+        assertEquals("original", Files.readString(file));
+        assertEquals(1, filesIn(directory), "No temporary file left");
+    }
+}
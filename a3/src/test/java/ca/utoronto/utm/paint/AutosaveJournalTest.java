@@ -0,0 +1,125 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AutosaveJournalTest {
+
+    private String saveText(PaintModel paintModel) {
+        StringWriter saved = new StringWriter();
+        paintModel.save(new PrintWriter(saved));
+        return saved.toString();
+    }
+
+    // Flushed only when the tests call flush, never by the timer
+    private AutosaveJournal journal(Path file) {
+        return new AutosaveJournal(file, task -> {});
+    }
+
+    @Test
+    public void recoversChangesAndRemovals(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("autosave.journal");
+        PaintModel paintModel = new PaintModel();
+        paintModel.addCommand(new RectangleCommand(new Point(1, 2), new Point(30, 40)));
+        AutosaveJournal journal = journal(file);
+        journal.attach(paintModel);
+
+        CircleCommand circle = new CircleCommand(new Point(100, 100), 0);
+        paintModel.addCommand(circle);
+        for (int r = 1; r <= 50; r++) circle.setRadius(r);
+        SquiggleCommand squiggle = new SquiggleCommand();
+        paintModel.addCommand(squiggle);
+        squiggle.add(5, 5);
+        journal.flush();
+        for (int i = 0; i < 100; i++) squiggle.add(i, 2 * i);
+        RectangleCommand removed = new RectangleCommand(new Point(0, 0), new Point(9, 9));
+        paintModel.addCommand(removed);
+        journal.flush();
+        paintModel.removeCommand(removed);
+        circle.setRadius(7);
+        journal.flush();
+        journal.awaitWrites();
+
+        // As after a crash: the journal is recovered without being closed
+        assertEquals(saveText(paintModel), saveText(AutosaveJournal.recover(file)));
+        journal.close(true);
+        assertFalse(Files.exists(file));
+        assertNull(AutosaveJournal.recover(file));
+    }
+
+    @Test
+    public void ignoresAnIncompleteLastRecord(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("autosave.journal");
+        PaintModel paintModel = new PaintModel();
+        AutosaveJournal journal = journal(file);
+        journal.attach(paintModel);
+        paintModel.addCommand(new CircleCommand(new Point(10, 20), 5));
+        journal.close(false);
+        String expected = saveText(paintModel);
+
+        Files.write(file, "+ 7 500\nCircle\n\tcolor:0,0,0\n".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+        assertEquals(expected, saveText(AutosaveJournal.recover(file)));
+        Files.write(file, "- 7".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        assertEquals(expected, saveText(AutosaveJournal.recover(file)));
+    }
+
+    @Test
+    public void compactsOnceTheAppendsOutgrowIt(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("autosave.journal");
+        PaintModel paintModel = new PaintModel();
+        AutosaveJournal journal = journal(file);
+        journal.attach(paintModel);
+        SquiggleCommand squiggle = new SquiggleCommand();
+        paintModel.addCommand(squiggle);
+        // Each flush appends the whole squiggle again
+        for (int i = 0; i < 400; i++) {
+            for (int j = 0; j < 10; j++) squiggle.add(i, j);
+            journal.flush();
+        }
+        journal.close(false);
+
+        long compacted = squiggle.getPaintSaveFileString().length() + 64;
+        assertTrue(Files.size(file) < AutosaveJournal.COMPACT_THRESHOLD + 2 * compacted, "Compacted");
+        assertEquals(saveText(paintModel), saveText(AutosaveJournal.recover(file)));
+    }
+
+    @Test
+    public void writesTheCommandsAsTheyWereWhenFlushed(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("autosave.journal");
+        PaintModel paintModel = new PaintModel();
+        AutosaveJournal journal = journal(file);
+        journal.attach(paintModel);
+        CircleCommand circle = new CircleCommand(new Point(10, 20), 5);
+        paintModel.addCommand(circle);
+        journal.flush();
+        String expected = saveText(paintModel);
+        circle.setRadius(99); // before the writer thread gets to it, perhaps
+        journal.awaitWrites();
+
+        assertEquals(expected, saveText(AutosaveJournal.recover(file)));
+        journal.close(true);
+    }
+
+    @Test
+    public void onlyOneJournalAtATimeTakesTheLock(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("autosave.journal");
+        AutosaveJournal first = journal(file);
+        AutosaveJournal second = journal(file);
+        assertTrue(first.tryLock());
+        assertTrue(first.tryLock(), "Still held");
+        assertFalse(second.tryLock(), "Held by the first");
+        first.close(true);
+        assertTrue(second.tryLock(), "Released by close");
+        second.close(true);
+    }
+}
@@ -0,0 +1,93 @@
+package ca.utoronto.utm.paint;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class OllamaClientTest {
+
+    @Test
+    public void streamsTokensOverOneConnection() throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request ->
+                StubOllamaServer.Reply.tokens("Paint ", "Save ", "File").delay(5))) {
+            OllamaClient client = server.client();
+            for (int call = 0; call < 3; call++) {
+                List<String> tokens = new ArrayList<String>();
+                OllamaClient.Generation generation = client.generate("system", "prompt " + call, tokens::add);
+                assertEquals(List.of("Paint ", "Save ", "File"), tokens);
+                assertEquals("Paint Save File", generation.getText());
+                assertEquals(3, generation.getPromptTokens());
+                assertEquals(3, generation.getResponseTokens());
+                assertEquals(1, generation.getAttempts());
+            }
+            assertEquals(1, server.getConnections(), "The connection is kept open between calls");
+            assertEquals(0, OllamaClient.watchdog.getQueue().size(), "The idle timers of the lines are dropped");
+
+            JSONObject request = server.getRequests().get(2);
+            assertEquals("llama3", request.getString("model"));
+            assertTrue(request.getBoolean("stream"));
+            assertEquals("system", request.getString("system"));
+            assertEquals("prompt 2", request.getString("prompt"));
+            assertEquals(8192, request.getJSONObject("options").getInt("num_ctx"));
+        }
+    }
+
+    @Test
+    public void retriesFailuresWithBackoff() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        try (StubOllamaServer server = new StubOllamaServer(request -> requests.incrementAndGet() <= 2
+                ? StubOllamaServer.Reply.status(503, "busy") : StubOllamaServer.Reply.tokens("ok"))) {
+            OllamaClient client = server.client();
+            long start = System.nanoTime();
+            OllamaClient.Generation generation = client.generate("system", "prompt", null);
+            assertEquals("ok", generation.getText());
+            assertEquals(3, generation.getAttempts());
+            assertTrue(System.nanoTime() - start >= Duration.ofMillis(10 + 20).toNanos(), "Backed off");
+
+            requests.set(0);
+            client.setMaxAttempts(2);
+            IOException thrown = assertThrows(IOException.class, () -> client.generate("system", "prompt", null));
+            assertTrue(thrown.getMessage().contains("503"), thrown.getMessage());
+            assertTrue(thrown.getMessage().contains("busy"), thrown.getMessage());
+        }
+
+        // A request the server rejects is not retried
+        try (StubOllamaServer server = new StubOllamaServer(request ->
+                StubOllamaServer.Reply.status(404, "model not found"))) {
+            assertThrows(IOException.class, () -> server.client().generate("system", "prompt", null));
+            assertEquals(1, server.getRequests().size());
+        }
+    }
+
+    @Test
+    public void timesOutAStalledResponseWithoutRetrying() throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request ->
+                StubOllamaServer.Reply.tokens("first", "never").stall())) {
+            OllamaClient client = server.client();
+            client.setIdleTimeout(Duration.ofMillis(200));
+            List<String> tokens = new ArrayList<String>();
+            long start = System.nanoTime();
+            assertThrows(HttpTimeoutException.class, () -> client.generate("system", "prompt", tokens::add));
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+            assertEquals(List.of("first"), tokens);
+            assertEquals(1, server.getRequests().size(), "Tokens were passed on, so not retried");
+        }
+    }
+
+    @Test
+    public void failsWhenTheServerIsDown() throws Exception {
+        StubOllamaServer server = new StubOllamaServer(request -> StubOllamaServer.Reply.tokens("x"));
+        OllamaClient client = server.client();
+        server.close();
+        client.setMaxAttempts(2);
+        assertThrows(IOException.class, () -> client.generate("system", "prompt", null));
+    }
+}
@@ -0,0 +1,97 @@
+package ca.utoronto.utm.paint;
+
+import java.io.UncheckedIOException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class OllamaPaintBatchTest {
+
+    private Map<String, AtomicInteger> running = new ConcurrentHashMap<String, AtomicInteger>();
+    private Map<String, AtomicInteger> mostRunning = new ConcurrentHashMap<String, AtomicInteger>();
+    private List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * @return a job that takes millis on ollama, as a call would
+     */
+    private Runnable job(Ollama ollama, String name, long millis) {
+        String host = ollama.getHost();
+        return () -> {
+            int now = this.running.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+            this.mostRunning.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                this.running.get(host).decrementAndGet();
+            }
+            this.finished.add(name);
+        };
+    }
+
+    @Test
+    public void runsJobsAtOnceWithinTheCapOfEachHost() throws InterruptedException {
+        Ollama a = new OllamaNumberedFile("host-a"), b = new OllamaNumberedFile("host-b");
+        OllamaPaintBatch batch = new OllamaPaintBatch(3);
+        for (int i = 0; i < 6; i++) {
+            batch.add("a" + i, a, this.job(a, "a" + i, 100));
+            batch.add("b" + i, b, this.job(b, "b" + i, 100));
+        }
+        long start = System.nanoTime();
+        Map<String, OllamaPaintBatch.Result> results = batch.run();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(12, results.size());
+        for (OllamaPaintBatch.Result result : results.values()) {
+            assertEquals(OllamaPaintBatch.Status.SUCCEEDED, result.getStatus(), result.toString());
+        }
+        assertEquals(3, this.mostRunning.get("host-a").get());
+        assertEquals(3, this.mostRunning.get("host-b").get());
+        assertTrue(millis >= 200 && millis < 1000, "Two rounds of 100ms on each host at once, not 1200ms: " + millis);
+    }
+
+    @Test
+    public void runsDependenciesFirstAndSkipsJobsOfFailures() throws InterruptedException {
+        Ollama ollama = new OllamaNumberedFile("host");
+        OllamaPaintBatch batch = new OllamaPaintBatch(4);
+        batch.add("modified.txt", ollama, this.job(ollama, "modified.txt", 10), "drawing.txt");
+        batch.add("drawing.txt", ollama, this.job(ollama, "drawing.txt", 150));
+        batch.add("remodified.txt", ollama, this.job(ollama, "remodified.txt", 10), "modified.txt", "existing.txt");
+        batch.add("failed.txt", ollama, () -> {
+            throw new UncheckedIOException(new IOException("Ollama call failed"));
+        });
+        batch.add("of failed.txt", ollama, this.job(ollama, "of failed.txt", 10), "failed.txt");
+        batch.add("of skipped.txt", ollama, this.job(ollama, "of skipped.txt", 10), "of failed.txt");
+
+        Map<String, OllamaPaintBatch.Result> results = batch.run();
+        assertEquals(List.of("drawing.txt", "modified.txt", "remodified.txt"), this.finished);
+        assertEquals(List.of("modified.txt", "drawing.txt", "remodified.txt", "failed.txt", "of failed.txt",
+                "of skipped.txt"), new ArrayList<String>(results.keySet()));
+        assertEquals(OllamaPaintBatch.Status.FAILED, results.get("failed.txt").getStatus());
+        assertEquals("Ollama call failed", results.get("failed.txt").getFailure().getCause().getMessage());
+        assertEquals(OllamaPaintBatch.Status.SKIPPED, results.get("of failed.txt").getStatus());
+        assertEquals(OllamaPaintBatch.Status.SKIPPED, results.get("of skipped.txt").getStatus());
+        assertSame(results.get("failed.txt").getFailure(), results.get("of skipped.txt").getFailure());
+        assertTrue(results.get("drawing.txt").getElapsedNanos() >= 150_000_000L);
+    }
+
+    @Test
+    public void rejectsCycles() {
+        Ollama ollama = new OllamaNumberedFile("host");
+        OllamaPaintBatch batch = new OllamaPaintBatch(1);
+        batch.add("a.txt", ollama, () -> {}, "c.txt");
+        batch.add("b.txt", ollama, () -> {}, "a.txt");
+        batch.add("c.txt", ollama, () -> {}, "b.txt");
+        assertThrows(IllegalArgumentException.class, () -> batch.add("a.txt", ollama, () -> {}));
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, batch::run);
+        assertTrue(thrown.getMessage().contains("a.txt -> c.txt -> b.txt -> a.txt"), thrown.getMessage());
+    }
+}
@@ -0,0 +1,79 @@
+package ca.utoronto.utm.paint;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class OllamaPaintStreamTest {
+    private static final String CIRCLE = "Circle\ncolor:0,0,0\nfilled:true\ncenter:(10+5,20)\nradius:5\nEnd Circle\n";
+    private static final String RECTANGLE = "Rectangle\ncolor:0,0,255\nfilled:false\np1:(1,2)\np2:(3,4)\nEnd Rectangle\n";
+
+    private ExecutorService modelThread = Executors.newSingleThreadExecutor();
+    private PaintModel model = new PaintModel();
+
+    @AfterEach
+    public void stopModelThread() throws InterruptedException {
+        this.modelThread.shutdown();
+        this.modelThread.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private int size() throws Exception {
+        return this.modelThread.submit(() -> this.model.getCommands().size()).get();
+    }
+
+    @Test
+    public void drawsEachShapeAsSoonAsItArrives() throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request -> StubOllamaServer.Reply.tokens(
+                "Here you go:\nPaint Save File Version 1.0\n", CIRCLE, RECTANGLE, "End Paint", " Save File\n", "Bye!")
+                .delay(300))) {
+            OllamaPaintStream stream = new OllamaPaintStream(server.client(), "system", this.model, this.modelThread);
+            CompletableFuture<Integer> drawn = new CompletableFuture<Integer>();
+            Thread drawing = Thread.startVirtualThread(() -> {
+                try {
+                    drawn.complete(stream.draw("Draw a circle and a rectangle"));
+                } catch (Throwable e) {
+                    drawn.completeExceptionally(e);
+                }
+            });
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (this.size() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, this.size(), "The circle is drawn once it arrives");
+            assertTrue(drawing.isAlive(), "The rest of the response is still to come");
+            PaintCommand first = this.modelThread.submit(() -> this.model.getCommands().get(0)).get();
+            assertEquals(15, ((CircleCommand) first).getCentre().x);
+            drawing.join();
+            assertEquals(2, drawn.get());
+            assertEquals(2, this.size());
+        }
+    }
+
+    @Test
+    public void redrawsWhenTheFileTurnsOutToBeInGraves() throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request -> StubOllamaServer.Reply.tokens(
+                "Paint Save File Version 1.0\n", CIRCLE, "Actually:\n```\nPaint Save File Version 1.0\n", RECTANGLE,
+                "End Paint Save File\n```"))) {
+            OllamaPaintStream stream = new OllamaPaintStream(server.client(), "system", this.model, this.modelThread);
+            assertEquals(1, stream.draw("Draw a rectangle"));
+            assertEquals(1, this.size());
+            assertInstanceOf(RectangleCommand.class, this.modelThread.submit(() -> this.model.getCommands().get(0)).get());
+        }
+    }
+
+    @Test
+    public void keepsTheShapesBeforeAnError() throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request -> StubOllamaServer.Reply.tokens(
+                "Paint Save File Version 1.0\n", CIRCLE, "Triangle\n", RECTANGLE, "End Paint Save File"))) {
+            OllamaPaintStream stream = new OllamaPaintStream(server.client(), "system", this.model, this.modelThread);
+            IOException thrown = assertThrows(IOException.class, () -> stream.draw("Draw a triangle"));
+            assertTrue(thrown.getMessage().startsWith("Error in line 8 "), thrown.getMessage());
+            assertEquals(1, this.size());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ca.utoronto.utm.paint;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class OllamaPaintValidatorTest {
+    private static final String INVALID = "Paint Save File Version 1.0\nCircle\ncolor:0,0,0\nfilled:maybe\n"
+            + "center:(1,2)\nradius:3\nEnd Circle\nEnd Paint Save File";
+    private static final String VALID = INVALID.replace("maybe", "true");
+
+    @Test
+    public void repromptsWithTheErrorUntilTheFileParses() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        try (StubOllamaServer server = new StubOllamaServer(request -> StubOllamaServer.Reply.tokens(
+                "```\n", requests.incrementAndGet() == 1 ? INVALID : VALID, "\n```"))) {
+            OllamaPaintValidator validator = new OllamaPaintValidator(server.client(), "system");
+            OllamaPaintValidator.Outcome outcome = validator.generate("Draw a circle");
+
+            assertTrue(outcome.isValid());
+            assertEquals(OllamaPaint.postProcess("```\n" + VALID + "\n```"), outcome.getText());
+            assertEquals(2, outcome.getAttempts());
+            assertEquals(2 * (3 + 3), outcome.getTokens());
+            String reprompt = server.getRequests().get(1).getString("prompt");
+            assertTrue(reprompt.startsWith("Draw a circle"), reprompt);
+            assertTrue(reprompt.contains("Error in line 4 Expected Circle filled, which is \"filled:maybe\""), reprompt);
+
+            OllamaPaintValidator.Stats stats = validator.getStats();
+            assertEquals(1, stats.getValidDrawings());
+            assertEquals(2.0, stats.getAttemptsPerValidDrawing());
+        }
+    }
+
+    @Test
+    public void cachesOnlyTheResponsesThatParse() throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request -> StubOllamaServer.Reply.tokens(
+                request.getString("prompt").equals("Draw a triangle") ? INVALID : VALID))) {
+            OllamaClient client = server.client();
+            client.setCache(new OllamaResponseCache(1 << 20, null));
+            OllamaPaintValidator validator = new OllamaPaintValidator(client, "system");
+
+            assertEquals(2, validator.generate("Draw a triangle", "a").getAttempts());
+            assertEquals(2, server.getRequests().size());
+            OllamaPaintValidator.Outcome again = validator.generate("Draw a triangle", "a");
+            assertTrue(again.isValid());
+            assertEquals(3, server.getRequests().size(), "The invalid response is asked for again, the valid one is cached");
+
+            validator.generate("Draw a circle", "a");
+            validator.generate("Draw a circle", "a");
+            assertEquals(4, server.getRequests().size(), "The same sample is cached");
+            validator.generate("Draw a circle", "b");
+            assertEquals(5, server.getRequests().size(), "Another sample is not");
+        }
+    }
+
+    @Test
+    public void givesUpOnceTheBudgetIsSpent() throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request -> StubOllamaServer.Reply.tokens(INVALID))) {
+            OllamaPaintValidator validator = new OllamaPaintValidator(server.client(), "system");
+            validator.setMaxAttempts(4);
+            OllamaPaintValidator.Outcome outcome = validator.generate("Draw a circle");
+            assertFalse(outcome.isValid());
+            assertEquals(4, outcome.getAttempts());
+            assertEquals("Error in line 4 Expected Circle filled", outcome.getErrorMessage());
+
+            validator.setMaxTokens(7); // 4 a response
+            assertEquals(2, validator.generate("Draw a circle").getAttempts());
+
+            OllamaPaintValidator.Stats stats = validator.getStats();
+            assertEquals(2, stats.getDrawings());
+            assertEquals(0, stats.getValidDrawings());
+            assertEquals(6, stats.getAttempts());
+            assertEquals(6 * 4, stats.getTokens());
+            assertEquals(0, stats.getAttemptsPerValidDrawing());
+            assertTrue(stats.toString().contains("no valid drawing"), stats.toString());
+            assertFalse(stats.toString().matches(".*(Infinity|NaN).*"), stats.toString());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ca.utoronto.utm.paint;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OllamaResponseCacheTest {
+
+    @Test
+    public void answersRepeatedRequestsWithoutTheServer(@TempDir Path directory) throws Exception {
+        try (StubOllamaServer server = new StubOllamaServer(request ->
+                StubOllamaServer.Reply.tokens("Paint ", "Save ", "File"))) {
+            OllamaClient client = server.client();
+            client.setCache(new OllamaResponseCache(1 << 20, directory));
+            assertEquals(1, client.generate("system", "prompt", null).getAttempts());
+
+            List<String> tokens = new ArrayList<String>();
+            OllamaClient.Generation cached = client.generate("system", "prompt", tokens::add);
+            assertEquals("Paint Save File", cached.getText());
+            assertEquals(List.of("Paint Save File"), tokens);
+            assertEquals(0, cached.getAttempts());
+            assertEquals(3, cached.getResponseTokens());
+            assertEquals(1, server.getRequests().size());
+
+            client.generate("other system", "prompt", null);
+            client.setModel("llama3.1");
+            client.generate("system", "prompt", null);
+            client.setModel("llama3");
+            client.setContextSize(4096);
+            client.generate("system", "prompt", null);
+            assertEquals(4, server.getRequests().size(), "The system prompt, model and options are all of the key");
+
+            client.setContextSize(8192);
+            client.setCacheBypassed(true);
+            client.generate("system", "prompt", null);
+            assertEquals(5, server.getRequests().size());
+            assertEquals(1, client.getCache().getHits());
+            assertEquals(4, client.getCache().getMisses());
+
+            // Another run of the program finds the responses on disk
+            OllamaClient later = server.client();
+            later.setCache(new OllamaResponseCache(1 << 20, directory));
+            assertEquals("Paint Save File", later.generate("system", "prompt", null).getText());
+            assertEquals(5, server.getRequests().size());
+            assertEquals(1, later.getCache().getDiskHits());
+        }
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedBeyondMaxBytes() {
+        OllamaResponseCache cache = new OllamaResponseCache(2 * 30, null);
+        for (String key : new String[]{"a", "b", "c"}) {
+            cache.put(key, new OllamaClient.Generation("0123456789", 1, 1, 1));
+        }
+        assertEquals(60, cache.getBytes());
+        assertNotNull(cache.get("a"));
+        cache.put("d", new OllamaClient.Generation("0123456789", 1, 1, 1));
+        assertNull(cache.get("b"), "b was used least recently");
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+
+        cache.put("e", new OllamaClient.Generation("01234567890123456789", 1, 1, 1));
+        assertEquals(60, cache.getBytes());
+        assertNull(cache.get("a"));
+        assertNull(cache.get("c"));
+        assertEquals(64, OllamaResponseCache.key("request").length());
+        assertNotEquals(OllamaResponseCache.key("request"), OllamaResponseCache.key("request "));
+    }
+}
@@ -0,0 +1,103 @@
+package ca.utoronto.utm.paint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PaintBinaryFileTest {
+
+    private String saveText(PaintModel paintModel) {
+        StringWriter saved = new StringWriter();
+        paintModel.save(new PrintWriter(saved));
+        return saved.toString();
+    }
+
+    private byte[] saveBinary(PaintModel paintModel) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PaintBinaryFile.save(out, paintModel);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void binaryRoundTripsSampleFiles(@TempDir Path directory) throws IOException {
+        File samples = new File(getClass().getClassLoader().getResource("samplefiles").getFile());
+        for (File file : samples.listFiles()) {
+            PaintModel paintModel = new PaintModel();
+            if (!new PaintFileParser().parse(file, paintModel)) continue;
+
+            Path binary = directory.resolve(file.getName() + PaintBinaryFile.EXTENSION);
+            Files.write(binary, saveBinary(paintModel));
+
+            PaintModel reloaded = new PaintModel();
+            PaintFileParser parser = new PaintFileParser();
+            assertTrue(parser.parse(binary.toFile(), reloaded), file.getName() + ": " + parser.getErrorMessage());
+            assertEquals(saveText(paintModel), saveText(reloaded), file.getName() + ": Same model after round trip");
+        }
+    }
+
+    @Test
+    public void binaryIsSmallerForSquiggles() throws IOException {
+        SquiggleCommand squiggle = new SquiggleCommand();
+        for (int i = 0; i < 10000; i++) {
+            squiggle.add(new Point(250 + (int) (100 * Math.cos(i / 100.0)), 250 + (int) (100 * Math.sin(i / 100.0))));
+        }
+        PaintModel paintModel = new PaintModel();
+        paintModel.addCommand(squiggle);
+
+        int textSize = saveText(paintModel).length();
+        byte[] binary = saveBinary(paintModel);
+        assertTrue(8 * binary.length < textSize, binary.length + " bytes against " + textSize);
+
+        PaintModel reloaded = new PaintModel();
+        assertTrue(new PaintBinaryFileParser().parse(ByteBuffer.wrap(binary), reloaded));
+        assertEquals(saveText(paintModel), saveText(reloaded));
+    }
+
+    private String parseError(byte[] bytes) {
+        PaintBinaryFileParser parser = new PaintBinaryFileParser();
+        assertFalse(parser.parse(ByteBuffer.wrap(bytes), new PaintModel()));
+        return parser.getErrorMessage();
+    }
+
+    @Test
+    public void binaryReportsErrors() throws IOException {
+        PaintModel paintModel = new PaintModel();
+        paintModel.addCommand(new CircleCommand(new Point(-3, 700), 12));
+        paintModel.addCommand(new RectangleCommand(new Point(1, 2), new Point(3, 4)));
+        byte[] binary = saveBinary(paintModel);
+        int rectangleStart = 5 + 1 + 4 + 4; // header, then the tag, style and 4 value bytes of the circle
+
+        assertEquals("Error at byte 0 Expected Start of binary Paint Save File", parseError("Paint".getBytes()));
+        byte[] version = binary.clone();
+        version[4] = 9;
+        assertEquals("Error at byte 0 Unsupported binary Paint Save File version 9", parseError(version));
+        assertEquals("Error at byte " + rectangleStart + " Unexpected end of file",
+                parseError(Arrays.copyOf(binary, binary.length - 2)));
+        assertEquals("Error at byte " + binary.length + " Extra content after End of File",
+                parseError(Arrays.copyOf(binary, binary.length + 1)));
+        byte[] tag = binary.clone();
+        tag[rectangleStart] = 7;
+        assertEquals("Error at byte " + rectangleStart + " Expected Start of Shape or End Paint Save File", parseError(tag));
+        byte[] radius = binary.clone();
+        assertEquals(24, radius[rectangleStart - 1]); // 12, zigzagged
+        radius[rectangleStart - 1] = 23; // -12
+        assertEquals("Error at byte 5 Malformed radius", parseError(radius));
+
+        PaintBinaryFileParser parser = new PaintBinaryFileParser();
+        assertFalse(parser.parse(ByteBuffer.wrap(binary), (PaintCommand command) -> {
+            if (command instanceof RectangleCommand) throw new IllegalArgumentException("Refused");
+        }));
+        assertEquals("Error at byte " + rectangleStart + " Invalid shape 2: Refused", parser.getErrorMessage());
+    }
+}
@@ -0,0 +1,128 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PaintFileGeneratorTest {
+
+    private String written(PaintFileGenerator generator) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.write(out);
+        return out.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void generatesTheSameValidFileForASeed() throws IOException {
+        PaintFileGenerator generator = PaintFileGenerator.ofLines(10000, 7);
+        String text = written(generator);
+        assertEquals(text, written(PaintFileGenerator.ofLines(10000, 7)));
+        assertNotEquals(text, written(PaintFileGenerator.ofLines(10000, 8)));
+        assertEquals(generator.getLineCount(), text.lines().count());
+        assertTrue(Math.abs(generator.getLineCount() - 10000) < PaintFileGenerator.SHAPE_LINES);
+
+        PaintModel parsed = new PaintModel();
+        PaintFileParser parser = new PaintFileParser();
+        assertTrue(parser.parse(new BufferedReader(new StringReader(text)), parsed), parser.getErrorMessage());
+        StringBuilder saved = new StringBuilder("Paint Save File Version 1.0\n");
+        for (PaintCommand command : generator.generateModel().getCommands()) {
+            saved.append(command.getPaintSaveFileString());
+        }
+        assertEquals(saved.append("End Paint Save File\n").toString(), text);
+        assertEquals(parsed.getCommands().size(), generator.generateCommands().size());
+    }
+
+    private PaintFileGenerator mixedDrawing(long seed) {
+        PaintFileGenerator generator = new PaintFileGenerator(seed);
+        generator.setCircles(20);
+        generator.setRectangles(20);
+        generator.setSquiggles(20);
+        generator.setPolylines(20);
+        generator.setPoints(15);
+        return generator;
+    }
+
+    /**
+     * @return the error message of parsing text, or "" and the saved model if it parsed
+     */
+    private String parse(String text, PaintFileParser.Engine engine, int parallelism) {
+        PaintFileParser parser = new PaintFileParser();
+        parser.setEngine(engine);
+        parser.setParallelism(parallelism);
+        PaintModel parsed = new PaintModel();
+        if (!parser.parse(new BufferedReader(new StringReader(text)), parsed)) {
+            return parser.getErrorMessage();
+        }
+        StringBuilder saved = new StringBuilder();
+        for (PaintCommand command : parsed.getCommands()) {
+            saved.append(command.getPaintSaveFileString());
+        }
+        return saved.toString();
+    }
+
+    @Test
+    public void whitespaceVariantsHoldTheSameDrawing() throws IOException {
+        PaintFileGenerator generator = mixedDrawing(3);
+        String expected = parse(written(generator), PaintFileParser.Engine.SCANNER, 1);
+        for (PaintFileGenerator.Whitespace whitespace : PaintFileGenerator.Whitespace.values()) {
+            generator.setWhitespace(whitespace);
+            String text = written(generator);
+            if (whitespace != PaintFileGenerator.Whitespace.CANONICAL) {
+                generator.setWhitespace(PaintFileGenerator.Whitespace.CANONICAL);
+                assertNotEquals(written(generator), text, whitespace.toString());
+            }
+            for (PaintFileParser.Engine engine : PaintFileParser.Engine.values()) {
+                assertEquals(expected, parse(text, engine, 1), whitespace + " " + engine);
+            }
+        }
+    }
+
+    @Test
+    public void corruptionsFailAtTheExpectedLine() throws IOException {
+        for (PaintFileGenerator.Whitespace whitespace : PaintFileGenerator.Whitespace.values()) {
+            for (long seed = 0; seed < 4; seed++) {
+                PaintFileGenerator generator = mixedDrawing(seed);
+                generator.setWhitespace(whitespace);
+                for (PaintFileGenerator.Failure failure : PaintFileGenerator.Failure.values()) {
+                    generator.setFailure(failure);
+                    String text = written(generator);
+                    String expected = generator.getExpectedErrorMessage();
+                    assertTrue(expected.endsWith(failure.getMessage()));
+                    for (PaintFileParser.Engine engine : PaintFileParser.Engine.values()) {
+                        assertEquals(expected, parse(text, engine, 1), whitespace + " " + failure + " " + engine);
+                    }
+                }
+            }
+        }
+
+        // With no shapes at all
+        PaintFileGenerator empty = new PaintFileGenerator(5);
+        empty.setFailure(PaintFileGenerator.Failure.SHAPE_START);
+        assertEquals("Error in line 2 Expected Start of Shape or End Paint Save File",
+                parse(written(empty), PaintFileParser.Engine.SCANNER, 1));
+        empty.setFailure(PaintFileGenerator.Failure.CIRCLE_COLOR);
+        assertThrows(IllegalStateException.class, () -> written(empty));
+    }
+
+    @Test
+    public void millionsOfLines(@TempDir Path directory) throws IOException {
+        PaintFileGenerator generator = PaintFileGenerator.ofLines(2_000_000, 11);
+        generator.setWhitespace(PaintFileGenerator.Whitespace.MIXED);
+        generator.setFailure(PaintFileGenerator.Failure.POLYLINE_END);
+        Path file = directory.resolve("large.txt");
+        generator.write(file);
+        for (int parallelism : new int[]{1, 4}) {
+            PaintFileParser parser = new PaintFileParser();
+            parser.setParallelism(parallelism);
+            assertFalse(parser.parse(file.toFile(), new PaintModel()));
+            assertEquals(generator.getExpectedErrorMessage(), parser.getErrorMessage(), "Parallelism " + parallelism);
+        }
+    }
+}
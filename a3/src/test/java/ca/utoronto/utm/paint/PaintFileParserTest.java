@@ -1,14 +1,25 @@
 package ca.utoronto.utm.paint;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 
 public class PaintFileParserTest {
 
@@ -134,5 +145,245 @@ public class PaintFileParserTest {
         this.doParserTestCase("samplefiles/multishapes_fail_missingendshape.txt",
                 "Returns false for multiple shapes file with incorrect end shape", "Error in line 13 ");
     }
-}
 
+    @Test
+    public void parserTest17() throws IOException {
+        this.doParserTestCase("samplefiles/squiggle_fail_missingcolor.txt",
+                "Returns false for squiggle without a color", "Error in line 3 ");
+    }
+
+    /**
+     * Parse input with the given engine, returning the result, the error message
+     * and the save file string of the resulting model.
+     */
+    private String parseWith(PaintFileParser.Engine engine, BufferedReader input) throws IOException {
+        PaintFileParser parser = new PaintFileParser();
+        parser.setEngine(engine);
+        PaintModel paintModel = new PaintModel();
+        boolean retVal = parser.parse(input, paintModel);
+        input.close();
+
+        StringWriter saved = new StringWriter();
+        paintModel.save(new PrintWriter(saved));
+        return retVal + "\n" + parser.getErrorMessage() + "\n" + saved;
+    }
+
+    @Test
+    public void parserEnginesAgreeOnSampleFiles() throws IOException {
+        File directory = new File(getClass().getClassLoader().getResource("samplefiles").getFile());
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        for (File file : files) {
+            String regex = parseWith(PaintFileParser.Engine.REGEX, new BufferedReader(new FileReader(file)));
+            String scanner = parseWith(PaintFileParser.Engine.SCANNER, new BufferedReader(new FileReader(file)));
+            assertEquals(regex, scanner, file.getName() + ": Engines agree");
+        }
+    }
+
+    @Test
+    public void parserMappedFileAgreesWithReader() throws IOException {
+        File directory = new File(getClass().getClassLoader().getResource("samplefiles").getFile());
+        for (File file : directory.listFiles()) {
+            PaintFileParser parser = new PaintFileParser();
+            PaintModel paintModel = new PaintModel();
+            boolean retVal = parser.parse(file, paintModel);
+            StringWriter saved = new StringWriter();
+            paintModel.save(new PrintWriter(saved));
+            String mapped = retVal + "\n" + parser.getErrorMessage() + "\n" + saved;
+
+            String reader = parseWith(PaintFileParser.Engine.SCANNER, new BufferedReader(new FileReader(file)));
+            assertEquals(reader, mapped, file.getName() + ": Mapped file agrees with reader");
+        }
+    }
+
+    @Test
+    public void parserReportsMissingFile() {
+        PaintFileParser parser = new PaintFileParser();
+        assertFalse(parser.parse("no_such_paint_file.txt"));
+        assertTrue(parser.getErrorMessage().contains("File Not Found"));
+    }
+
+    @Test
+    public void parserEnginesAgreeOnLineEndingsAndValues() throws IOException {
+        String[] contents = {
+                "Paint Save File Version 1.0\r\nCircle\r\n\tcolor:0,10,255\r\n\tfilled:false\r\n"
+                        + "\tcenter:(-5,007)\r\n\tradius:3\r\nEnd Circle\r\nEnd Paint Save File\r\n",
+                "Paint Save File Version 1.0\rCircle\r\r\n \t\n",
+                "Paint Save File Version 1.0\nCircle\ncolor:256,0,0\n",
+                "Paint Save File Version 1.0\nCircle\ncolor:01,0,0\n",
+                "Paint Save File Version 1.0\nRectangle\ncolor:1,2,3\nfilled:TRUE\n",
+                "Paint Save File Version 1.0\nRectangle\ncolor:1,2,3\nfilled:true\np1:(1,2)\np2:(3,-)\n",
+                "Paint Save File Version 1.0\nPolyline\ncolor:1,2,3\nfilled:true\npoints\npoint:(1,2)\nend points\nEnd Squiggle\n",
+                "Paint Save File Version 1.0\nEnd Paint Save File\nCircle",
+                "Paint Save File Version 1.0",
+                "Paint Save File Version 1X0\nEnd Paint Save File\n"
+        };
+        for (String content : contents) {
+            String regex = parseWith(PaintFileParser.Engine.REGEX, new BufferedReader(new StringReader(content)));
+            String scanner = parseWith(PaintFileParser.Engine.SCANNER, new BufferedReader(new StringReader(content)));
+            assertEquals(regex, scanner, content + ": Engines agree");
+        }
+    }
+
+    /**
+     * @return a Paint Save File of several megabytes, with replace appended after shape number at
+     */
+    private String largeFile(int at, String replace) {
+        StringBuilder sb = new StringBuilder("Paint Save File Version 1.0\n");
+        for (int shape = 0; shape < 400; shape++) {
+            if (shape == at) sb.append(replace);
+            if (shape % 2 == 0) {
+                sb.append("Squiggle\n\tcolor:1,2,3\n\tfilled:false\n\tpoints\n");
+                for (int i = 0; i < 2000; i++) {
+                    sb.append("\t\tpoint:(").append(shape).append(",").append(i).append(")\n");
+                }
+                sb.append("\tend points\nEnd Squiggle\n");
+            } else {
+                sb.append("Circle\n\tcolor:4,5,6\n\tfilled:true\n\tcenter:(").append(shape)
+                        .append(",7)\n\tradius:8\n\nEnd Circle\n");
+            }
+        }
+        return sb.append("End Paint Save File\n").toString();
+    }
+
+    private String parseFileWith(int parallelism, Path file) {
+        PaintFileParser parser = new PaintFileParser();
+        parser.setParallelism(parallelism);
+        PaintModel paintModel = new PaintModel();
+        boolean retVal = parser.parse(file.toFile(), paintModel);
+        StringWriter saved = new StringWriter();
+        paintModel.save(new PrintWriter(saved));
+        return retVal + "\n" + parser.getErrorMessage() + "\n" + saved;
+    }
+
+    @Test
+    public void parserParallelAgreesWithSequential(@TempDir Path directory) throws IOException {
+        String[][] cases = {
+                {"valid", ""},
+                {"error", "Circle\n\tcolor:1,2,3\n\tfilled:maybe\n"},
+                {"unclosed", "Squiggle\n\tcolor:1,2,3\n\tfilled:false\n\tpoints\n"},
+                {"early_end", "End Paint Save File\n"},
+                {"overflow", "Circle\n\tcolor:1,2,3\n\tfilled:true\n\tcenter:(99999999999,0)\n"}
+        };
+        for (String[] c : cases) {
+            Path file = directory.resolve(c[0] + ".txt");
+            Files.writeString(file, largeFile(301, c[1]));
+            assertTrue(Files.size(file) > 4 * PaintFileParser.MINIMUM_CHUNK_SIZE);
+            assertEquals(parseFileWith(1, file), parseFileWith(8, file), c[0] + ": Parallel parse agrees");
+        }
+    }
+
+    @Test
+    public void parserReportsProgressAndCancels(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("large.txt");
+        Files.writeString(file, largeFile(-1, ""));
+        long size = Files.size(file);
+        for (int parallelism : new int[]{1, 8}) {
+            PaintFileParser parser = new PaintFileParser();
+            parser.setParallelism(parallelism);
+            List<Long> reports = Collections.synchronizedList(new ArrayList<Long>());
+            parser.setProgressListener((done, total) -> {
+                assertEquals(size, total);
+                reports.add(done);
+            });
+            assertTrue(parser.parse(file.toFile(), new PaintModel()));
+            assertTrue(reports.size() > 10, parallelism + ": " + reports.size() + " reports");
+            assertEquals(size, reports.get(reports.size() - 1), parallelism + ": Ends with all of the file");
+
+            // Cancelled from the listener, part way through
+            PaintFileParser cancelled = new PaintFileParser();
+            cancelled.setParallelism(parallelism);
+            cancelled.setProgressListener((done, total) -> {
+                if (done > total / 3) cancelled.cancel();
+            });
+            PaintModel paintModel = new PaintModel();
+            assertFalse(cancelled.parse(file.toFile(), paintModel));
+            assertTrue(cancelled.getErrorMessage().endsWith(" Parse cancelled"), cancelled.getErrorMessage());
+        }
+    }
+
+    @Test
+    public void parserStreamsCommandsAsShapesEnd() throws IOException {
+        String content = largeFile(-1, "");
+        int[] read = {0}; // the number of characters the parser has taken from content
+        Reader counting = new StringReader(content) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) read[0] += n;
+                return n;
+            }
+        };
+        List<PaintCommand> streamed = new ArrayList<PaintCommand>();
+        List<Integer> readWhenStreamed = new ArrayList<Integer>();
+        PaintFileParser parser = new PaintFileParser();
+        boolean retVal = parser.parse(new BufferedReader(counting), (PaintCommand command) -> {
+            streamed.add(command);
+            readWhenStreamed.add(read[0]);
+        });
+        assertTrue(retVal);
+        assertEquals(400, streamed.size());
+        assertTrue(readWhenStreamed.getFirst() < content.length() / 100, "First command before the file is read");
+
+        PaintModel paintModel = new PaintModel();
+        parser.parse(new BufferedReader(new StringReader(content)), paintModel);
+        StringWriter fromModel = new StringWriter();
+        paintModel.save(new PrintWriter(fromModel));
+        StringBuilder fromListener = new StringBuilder();
+        for (PaintCommand command : streamed) fromListener.append(command.getPaintSaveFileString());
+        assertEquals(fromModel.toString(), fromListener.toString());
+    }
+
+    @Test
+    public void parserStreamsCommandsBeforeAnError() {
+        for (PaintFileParser.Engine engine : PaintFileParser.Engine.values()) {
+            String content = "Paint Save File Version 1.0\nCircle\ncolor:1,2,3\nfilled:true\ncenter:(1,2)\nradius:3\n"
+                    + "End Circle\nRectangle\ncolor:1,2,3\n";
+            List<PaintCommand> streamed = new ArrayList<PaintCommand>();
+            PaintFileParser parser = new PaintFileParser();
+            parser.setEngine(engine);
+            assertFalse(parser.parse(new BufferedReader(new StringReader(content)), streamed::add));
+            assertEquals("Error in line 9 Unexpected end of file", parser.getErrorMessage());
+            assertEquals(1, streamed.size());
+            assertInstanceOf(CircleCommand.class, streamed.getFirst());
+        }
+    }
+
+    @Test
+    public void parserLoadsShapesTooLargeForIntBounds() {
+        String circle = "Circle\ncolor:1,2,3\nfilled:false\ncenter:(1,2)\nradius:%d\nEnd Circle\n";
+        String content = "Paint Save File Version 1.0\n" + String.format(circle, 1500000000)
+                + "Rectangle\ncolor:1,2,3\nfilled:false\np1:(-2000000000,0)\np2:(2000000000,5)\nEnd Rectangle\n"
+                + "Squiggle\ncolor:1,2,3\nfilled:false\npoints\npoint:(0,-2000000000)\npoint:(1,2000000000)\n"
+                + "end points\nEnd Squiggle\n" + String.format(circle, 3) + "End Paint Save File\n";
+        for (PaintFileParser.Engine engine : PaintFileParser.Engine.values()) {
+            PaintFileParser parser = new PaintFileParser();
+            parser.setEngine(engine);
+            PaintModel paintModel = new PaintModel();
+            assertTrue(parser.parse(new BufferedReader(new StringReader(content)), paintModel), parser.getErrorMessage());
+            assertEquals(4, paintModel.getCommands().size(), engine + ": Every shape loaded");
+            assertEquals(3e9, paintModel.getCommands().get(0).getBounds().getWidth());
+            assertEquals(4e9, paintModel.getCommands().get(1).getBounds().getWidth());
+            assertEquals(4e9, paintModel.getCommands().get(2).getBounds().getHeight());
+        }
+    }
+
+    @Test
+    public void parserTracesLinesWhenEnabled() {
+        String content = "Paint Save File Version 1.0\n\nCircle\n  color : 1, 2, 3\n";
+        for (PaintFileParser.Engine engine : PaintFileParser.Engine.values()) {
+            List<String> traced = new ArrayList<String>();
+            Trace.setSink((level, message) -> traced.add(level + " " + message));
+            Trace.setLevel(Trace.Level.DEBUG);
+            try {
+                PaintFileParser parser = new PaintFileParser();
+                parser.setEngine(engine);
+                parser.parse(new BufferedReader(new StringReader(content)), new PaintModel());
+            } finally {
+                Trace.setLevel(Trace.Level.OFF);
+                Trace.setSink(Trace.STANDARD_OUTPUT);
+            }
+            assertEquals(List.of("DEBUG 1 PaintSaveFileVersion1.0 0", "DEBUG 2 Circle 1", "DEBUG 3 color:1,2,3 2"), traced);
+        }
+    }
+}
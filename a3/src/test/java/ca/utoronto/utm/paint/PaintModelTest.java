@@ -0,0 +1,168 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.paint.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class PaintModelTest {
+
+    private int told;
+
+    @Test
+    public void changesAreCoalescedUntilTaken() {
+        PaintModel paintModel = new PaintModel();
+        paintModel.addListener(model -> this.told++);
+        CircleCommand circle = new CircleCommand(new Point(10, 10), 1);
+        SquiggleCommand squiggle = new SquiggleCommand();
+
+        paintModel.addCommand(circle);
+        paintModel.addCommand(squiggle);
+        for (int i = 0; i < 100; i++) {
+            circle.setRadius(i);
+            squiggle.add(i, i);
+        }
+        assertEquals(1, this.told, "Told once, on the first change");
+        assertTrue(paintModel.isDirty());
+
+        Collection<PaintCommand> changes = paintModel.takeChanges();
+        assertEquals(2, changes.size());
+        assertTrue(changes.contains(circle) && changes.contains(squiggle));
+        assertFalse(paintModel.isDirty());
+
+        circle.setRadius(5);
+        assertEquals(2, this.told, "Told again after the changes were taken");
+        assertIterableEquals(List.of(circle), paintModel.takeChanges());
+    }
+
+    @Test
+    public void resetChangesEverything() {
+        PaintModel paintModel = new PaintModel();
+        CircleCommand circle = new CircleCommand(new Point(10, 10), 1);
+        paintModel.addCommand(circle);
+        paintModel.takeChanges();
+
+        paintModel.reset();
+        circle.setRadius(3); // no longer in the model
+        assertTrue(paintModel.isDirty());
+        assertNull(paintModel.takeChanges(), "Any command may have changed");
+        assertFalse(paintModel.isDirty());
+    }
+
+    private List<PaintCommand> intersecting(PaintModel paintModel, Rectangle2D region) {
+        List<PaintCommand> found = new ArrayList<PaintCommand>();
+        for (PaintCommand c : paintModel.getCommands()) {
+            Rectangle2D b = c.getBounds();
+            if (b != null && b.getMinX() <= region.getMaxX() && region.getMinX() <= b.getMaxX()
+                    && b.getMinY() <= region.getMaxY() && region.getMinY() <= b.getMaxY()) {
+                found.add(c);
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void indexAgreesWithCheckingEveryCommand() {
+        Random random = new Random(207);
+        PaintModel paintModel = new PaintModel();
+        for (int i = 0; i < 500; i++) {
+            int x = random.nextInt(2000) - 500, y = random.nextInt(2000) - 500;
+            switch (random.nextInt(3)) {
+                case 0 -> paintModel.addCommand(new CircleCommand(new Point(x, y), random.nextInt(i % 50 == 0 ? 2000 : 40)));
+                case 1 -> paintModel.addCommand(new RectangleCommand(new Point(x, y), new Point(x + random.nextInt(100), y - random.nextInt(100))));
+                default -> {
+                    SquiggleCommand squiggle = new SquiggleCommand();
+                    paintModel.addCommand(squiggle);
+                    for (int j = 0; j < 20; j++) {
+                        squiggle.add(x += random.nextInt(21) - 10, y += random.nextInt(21) - 10);
+                    }
+                }
+            }
+        }
+        // Move, grow and remove some of them, through their setters
+        List<PaintCommand> commands = new ArrayList<PaintCommand>(paintModel.getCommands());
+        for (int i = 0; i < 200; i++) {
+            PaintCommand c = commands.get(random.nextInt(commands.size()));
+            if (c instanceof CircleCommand circle) {
+                circle.setCentre(new Point(random.nextInt(1000), random.nextInt(1000)));
+            } else if (c instanceof RectangleCommand rectangle) {
+                rectangle.setP2(new Point(random.nextInt(1000), random.nextInt(1000)));
+            } else {
+                paintModel.removeCommand(c);
+                assertFalse(paintModel.contains(c));
+            }
+        }
+
+        for (int i = 0; i < 200; i++) {
+            Rectangle2D region = new Rectangle2D(random.nextInt(1500) - 500, random.nextInt(1500) - 500,
+                    random.nextInt(i < 100 ? 100 : 3000), random.nextInt(300));
+            assertEquals(intersecting(paintModel, region), paintModel.getCommandsIntersecting(region));
+        }
+        PaintCommand top = paintModel.getCommands().get(paintModel.getCommands().size() - 1);
+        Rectangle2D b = top.getBounds();
+        List<PaintCommand> at = paintModel.getCommandsAt(b.getMinX(), b.getMinY());
+        assertSame(top, at.get(at.size() - 1), "The topmost command is last");
+    }
+
+    @Test
+    public void copiesAreSavedAsTheCommandsWereWhenCopied() {
+        PaintModel paintModel = new PaintModel();
+        CircleCommand circle = new CircleCommand(new Point(1, 2), 3);
+        RectangleCommand rectangle = new RectangleCommand(new Point(4, 5), new Point(6, 7));
+        SquiggleCommand squiggle = new SquiggleCommand();
+        PolylineCommand polyline = new PolylineCommand();
+        for (int i = 0; i < 10; i++) {
+            squiggle.add(i, i);
+            polyline.add(i, -i);
+        }
+        List<PaintCommand> commands = List.of(circle, rectangle, squiggle, polyline);
+        List<String> saved = new ArrayList<String>();
+        List<PaintCommand> copies = new ArrayList<PaintCommand>();
+        for (PaintCommand command : commands) {
+            paintModel.addCommand(command);
+            saved.add(command.getPaintSaveFileString());
+            copies.add(command.copy());
+        }
+        paintModel.takeChanges();
+
+        circle.setRadius(30);
+        rectangle.setP2(new Point(60, 70));
+        squiggle.add(100, 100);
+        polyline.add(100, -100);
+        squiggle.setColor(Color.RED);
+        for (int i = 0; i < copies.size(); i++) {
+            assertSame(commands.get(i).getClass(), copies.get(i).getClass());
+            assertEquals(saved.get(i), copies.get(i).getPaintSaveFileString());
+            assertNotEquals(saved.get(i), commands.get(i).getPaintSaveFileString());
+        }
+        copies.get(2).setFill(!squiggle.isFill());
+        assertEquals(4, paintModel.takeChanges().size(), "Changing a copy does not change the model");
+    }
+
+    @Test
+    public void commandsThatCannotBeAddedLeaveTheModelAsItWas() {
+        PaintModel paintModel = new PaintModel();
+        CircleCommand refused = new CircleCommand(new Point(1, 2), 3) {
+            @Override
+            public Rectangle2D getBounds() {
+                throw new IllegalArgumentException("Refused");
+            }
+        };
+        assertThrows(IllegalArgumentException.class, () -> paintModel.addCommand(refused));
+        assertTrue(paintModel.getCommands().isEmpty());
+        assertFalse(paintModel.contains(refused));
+        CircleCommand circle = new CircleCommand(new Point(1, 2), 3);
+        paintModel.addCommand(circle);
+        assertIterableEquals(List.of(circle), paintModel.getCommands());
+        assertIterableEquals(List.of(circle), paintModel.getCommandsAt(1, 2));
+
+        assertThrows(IllegalArgumentException.class, () -> paintModel.addCommand(circle), "Added once only");
+        assertIterableEquals(List.of(circle), paintModel.getCommands());
+    }
+}
@@ -0,0 +1,90 @@
+package ca.utoronto.utm.paint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class PaintResponseNormalizerTest {
+    // Pieces of responses, and of the things postProcess looks for
+    private static final String[] PIECES = {
+            "Paint Save File Version 1.0", "Paint Save File Version 10", "Paint Save ", "End Paint Save File", "End ",
+            "```", "``", "`", "\"", ".", "*", "// a comment", "12+3", "-5-7", "x-5+3", "7-", "+", "-", "0", "42",
+            "_", "a", "Circle", "center:(", ")", ",", " ", "  ", "\n", "\r\n", "\r", "\t", "\u0000",
+            "́", "é", "é", "𝒜", "𝅧", "\uD835",
+    };
+
+    private static class Lines implements PaintResponseNormalizer.LineListener {
+        List<String> lines = new ArrayList<String>();
+        int resets = 0;
+
+        @Override
+        public void line(String line) {
+            this.lines.add(line);
+        }
+
+        @Override
+        public void reset() {
+            this.lines.clear();
+            this.resets++;
+        }
+    }
+
+    private static List<String> lines(String text) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new StringReader(text));
+        for (String line; (line = in.readLine()) != null; ) {
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    @Test
+    public void normalizesAsThePassesOfPostProcessDo() throws IOException {
+        Random random = new Random(7);
+        for (int response = 0; response < 20000; response++) {
+            StringBuilder text = new StringBuilder();
+            for (int piece = random.nextInt(30); piece > 0; piece--) {
+                text.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            String expected = OllamaPaint.postProcessByRegex(text.toString());
+
+            // In tokens of random sizes, splitting surrogate pairs and the rest
+            Lines lines = new Lines();
+            PaintResponseNormalizer normalizer = new PaintResponseNormalizer(lines);
+            for (int i = 0; i < text.length(); ) {
+                int end = Math.min(text.length(), i + 1 + random.nextInt(6));
+                normalizer.token(text.substring(i, end));
+                i = end;
+            }
+            assertEquals(expected, normalizer.finish(), text::toString);
+            assertEquals(lines(expected), lines.lines, text::toString);
+            assertEquals(expected, PaintResponseNormalizer.normalize(text.toString()));
+        }
+    }
+
+    @Test
+    public void givesLinesAsSoonAsTheyAreCertain() {
+        Lines lines = new Lines();
+        PaintResponseNormalizer normalizer = new PaintResponseNormalizer(lines);
+        normalizer.token("Sure! Here it is.\nPaint Save File Ver");
+        assertEquals(List.of(), lines.lines, "The preamble is held until the header");
+        normalizer.token("sion 1.0\nCircle\ncenter:(10+");
+        assertEquals(List.of("Paint Save File Version 1.0", "", "Circle"), lines.lines);
+        normalizer.token("5,20)\nradius:30-5\n");
+        assertEquals(List.of("Paint Save File Version 1.0", "", "Circle", "center:(15,20)", "radius:25"), lines.lines);
+
+        normalizer.token("Oops, in graves: ```Paint Save File Version 1.0\nCircle\n");
+        assertEquals(1, lines.resets);
+        assertEquals(List.of("Paint Save File Version 1.0", ""), lines.lines, "The newline may be trimmed");
+        normalizer.token("End Paint Save File\nHope that helps!```");
+        assertEquals("Paint Save File Version 1.0\n\nCircle\n\nEnd Paint Save File", normalizer.finish());
+        assertEquals(List.of("Paint Save File Version 1.0", "", "Circle", "", "End Paint Save File"), lines.lines);
+        assertThrows(IllegalStateException.class, () -> normalizer.token("more"));
+    }
+}
@@ -0,0 +1,65 @@
+package ca.utoronto.utm.paint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import javafx.scene.paint.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class PaintSaveFileWriterTest {
+
+    @Test
+    public void commandsWriteTheirBlocks() {
+        CircleCommand circle = new CircleCommand(new Point(-3, 700), 12);
+        circle.setColor(Color.rgb(0, 128, 255));
+        circle.setFill(true);
+        assertEquals("Circle\ncolor:0,128,255\n\tfilled:true\n\tcenter:(-3,700)\n\tradius:12\nEndCircle\n",
+                circle.getPaintSaveFileString());
+        assertEquals("\tcolor:0,128,255\n\tfilled:true\n", circle.toString());
+
+        RectangleCommand rectangle = new RectangleCommand(new Point(1, 2), new Point(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        rectangle.setColor(Color.rgb(9, 10, 99));
+        rectangle.setFill(false);
+        assertEquals("Rectangle\ncolor:9,10,99\n\tfilled:false\n\tp1:(1,2)\n\tp2:(-2147483648,2147483647)\nEnd Rectangle\n",
+                rectangle.getPaintSaveFileString());
+
+        String points = "\tpoints\n\t\tpoint:(0,0)\n\t\tpoint:(10,-10)\n\tend points\n";
+        SquiggleCommand squiggle = new SquiggleCommand();
+        squiggle.setColor(Color.rgb(1, 2, 3));
+        squiggle.setFill(false);
+        squiggle.add(0, 0);
+        squiggle.add(10, -10);
+        assertEquals("Squiggle\ncolor:1,2,3\n\tfilled:false\n" + points + "End Squiggle\n", squiggle.getPaintSaveFileString());
+
+        PolylineCommand polyline = new PolylineCommand();
+        polyline.setColor(Color.rgb(1, 2, 3));
+        polyline.setFill(false);
+        polyline.add(0, 0);
+        polyline.add(10, -10);
+        assertEquals("Polyline\ncolor:1,2,3\n\tfilled:false\n" + points + "End Polyline\n", polyline.getPaintSaveFileString());
+    }
+
+    @Test
+    public void streamAndWriterAgree() throws IOException {
+        PaintModel paintModel = new PaintModel();
+        SquiggleCommand squiggle = new SquiggleCommand();
+        for (int i = 0; i < 20000; i++) squiggle.add(i, -i); // spans many buffers
+        paintModel.addCommand(squiggle);
+        paintModel.addCommand(new CircleCommand(new Point(5, 5), 5));
+
+        StringWriter text = new StringWriter();
+        paintModel.save(new PrintWriter(text));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        paintModel.save(new PaintSaveFileWriter(bytes));
+        assertEquals(text.toString(), bytes.toString(StandardCharsets.US_ASCII));
+
+        StringBuilder expected = new StringBuilder();
+        for (PaintCommand c : paintModel.getCommands()) expected.append(c.getPaintSaveFileString());
+        assertEquals(expected.toString(), text.toString());
+    }
+}
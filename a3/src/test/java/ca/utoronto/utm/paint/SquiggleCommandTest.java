@@ -0,0 +1,43 @@
+package ca.utoronto.utm.paint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class SquiggleCommandTest {
+
+    @Test
+    public void squiggleIsStrokedAsOnePolylinePerChunk() {
+        int n = 3 * SquiggleCommand.POLYLINE_CHUNK;
+        SquiggleCommand squiggle = new SquiggleCommand();
+        for (int i = 0; i < n; i++) {
+            squiggle.add(i, 2 * i);
+        }
+        List<Integer> sizes = new ArrayList<Integer>();
+        List<Integer> xs = new ArrayList<Integer>();
+        int polylines = squiggle.strokePolylines((xPoints, yPoints, nPoints) -> {
+            sizes.add(nPoints);
+            for (int i = 0; i < nPoints; i++) {
+                assertEquals(2 * xPoints[i], yPoints[i]);
+                xs.add((int) xPoints[i]);
+            }
+        });
+        // Each polyline after the first starts at the end of the last, so the n - 1 segments take 4 chunks
+        assertEquals(4, polylines, "One render operation per chunk, rather than " + (n - 1) + " strokeLines");
+        assertEquals(polylines, sizes.size());
+        assertEquals(n + polylines - 1, xs.size());
+        int segments = 0;
+        for (int size : sizes) {
+            assertTrue(size <= SquiggleCommand.POLYLINE_CHUNK);
+            segments += size - 1;
+        }
+        assertEquals(n - 1, segments);
+        assertEquals(n - 1, xs.getLast());
+
+        SquiggleCommand dot = new SquiggleCommand();
+        dot.add(1, 2);
+        assertEquals(0, dot.strokePolylines((xPoints, yPoints, nPoints) -> fail("A single point draws nothing")));
+    }
+}
@@ -0,0 +1,198 @@
+package ca.utoronto.utm.paint;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A stand-in for an Ollama server, for tests: answers each request to its
+ * generate API with the Reply its responder makes for the request, keeping
+ * connections open between requests as Ollama does.
+ */
+class StubOllamaServer implements Closeable {
+
+    /**
+     * A response, streamed as lines of JSON with delayMillis between them.
+     */
+    static final class Reply {
+        final int status;
+        final List<String> lines;
+        long delayMillis = 0;
+        boolean stall = false; // stop sending, without ending the response
+
+        private Reply(int status, List<String> lines) {
+            this.status = status;
+            this.lines = lines;
+        }
+
+        /**
+         * @return a response of the tokens, counting one response token each
+         */
+        static Reply tokens(String... tokens) {
+            ArrayList<String> lines = new ArrayList<String>();
+            for (String token : tokens) {
+                lines.add(new JSONObject().put("response", token).put("done", false).toString());
+            }
+            lines.add(new JSONObject().put("response", "").put("done", true)
+                    .put("prompt_eval_count", 3).put("eval_count", tokens.length).toString());
+            return new Reply(200, lines);
+        }
+
+        static Reply status(int status, String error) {
+            return new Reply(status, List.of(new JSONObject().put("error", error).toString()));
+        }
+
+        Reply delay(long delayMillis) {
+            this.delayMillis = delayMillis;
+            return this;
+        }
+
+        /**
+         * @return this, sending only its first line and then nothing more
+         */
+        Reply stall() {
+            this.stall = true;
+            return this;
+        }
+    }
+
+    private final ServerSocket server;
+    private final Function<JSONObject, Reply> responder;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<JSONObject> requests = Collections.synchronizedList(new ArrayList<JSONObject>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+    StubOllamaServer(Function<JSONObject, Reply> responder) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.responder = responder;
+        Thread.ofPlatform().daemon().start(this::accept);
+    }
+
+    String getHost() {
+        return this.server.getInetAddress().getHostAddress();
+    }
+
+    int getPort() {
+        return this.server.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections made to this
+     */
+    int getConnections() {
+        return this.connections.get();
+    }
+
+    /**
+     * @return the bodies of the requests made, in order
+     */
+    List<JSONObject> getRequests() {
+        synchronized (this.requests) {
+            return new ArrayList<JSONObject>(this.requests);
+        }
+    }
+
+    /**
+     * @return a client of this, retrying quickly
+     */
+    OllamaClient client() {
+        OllamaClient client = new OllamaClient(this.getHost(), this.getPort(), Duration.ofSeconds(5));
+        client.setBackoff(Duration.ofMillis(10));
+        return client;
+    }
+
+    private void accept() {
+        while (!this.server.isClosed()) {
+            try {
+                Socket socket = this.server.accept();
+                this.connections.incrementAndGet();
+                this.sockets.add(socket);
+                Thread.ofPlatform().daemon().start(() -> this.serve(socket));
+            } catch (IOException e) {
+                return; // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String head;
+            while ((head = readHead(in)) != null) {
+                int length = 0;
+                for (String header : head.split("\r\n")) {
+                    if (header.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(header.substring(15).trim());
+                    }
+                }
+                JSONObject request = new JSONObject(new String(in.readNBytes(length), StandardCharsets.UTF_8));
+                this.requests.add(request);
+                this.reply(out, this.responder.apply(request));
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client, or this, closed the connection
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            head.write(c);
+            String s = head.toString(StandardCharsets.US_ASCII);
+            if (s.endsWith("\r\n\r\n")) return s;
+        }
+        return null;
+    }
+
+    private void reply(OutputStream out, Reply reply) throws IOException, InterruptedException {
+        if (reply.status != 200) {
+            byte[] body = String.join("\n", reply.lines).getBytes(StandardCharsets.UTF_8);
+            out.write(("HTTP/1.1 " + reply.status + " Error\r\nContent-Type: application/json\r\nContent-Length: "
+                    + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+            return;
+        }
+        out.write("HTTP/1.1 200 OK\r\nContent-Type: application/x-ndjson\r\nTransfer-Encoding: chunked\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        for (String line : reply.lines) {
+            byte[] chunk = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            out.write((Integer.toHexString(chunk.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(chunk);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            if (reply.stall) {
+                Thread.sleep(Long.MAX_VALUE); // until interrupted, or the connection is closed
+            }
+            Thread.sleep(reply.delayMillis);
+        }
+        out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.server.close();
+        synchronized (this.sockets) {
+            for (Socket socket : this.sockets) {
+                socket.close();
+            }
+        }
+    }
+}
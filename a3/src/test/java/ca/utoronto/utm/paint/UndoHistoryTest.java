@@ -0,0 +1,115 @@
+package ca.utoronto.utm.paint;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javafx.scene.paint.Color;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.*;
+
+public class UndoHistoryTest {
+
+    private String saveText(PaintModel paintModel) {
+        StringWriter saved = new StringWriter();
+        paintModel.save(new PrintWriter(saved));
+        return saved.toString();
+    }
+
+    @Test
+    public void undoAndRedoEachEdit() {
+        PaintModel paintModel = new PaintModel();
+        UndoHistory history = new UndoHistory(paintModel, UndoHistory.DEFAULT_BYTE_BUDGET);
+        String[] states = new String[5];
+        states[0] = saveText(paintModel);
+
+        // A circle dragged out as one edit
+        history.beginEdit();
+        CircleCommand circle = new CircleCommand(new Point(100, 100), 0);
+        paintModel.addCommand(circle);
+        for (int r = 1; r <= 50; r++) circle.setRadius(r);
+        history.endEdit();
+        states[1] = saveText(paintModel);
+
+        // A squiggle dragged out as one edit
+        history.beginEdit();
+        SquiggleCommand squiggle = new SquiggleCommand();
+        paintModel.addCommand(squiggle);
+        for (int i = 0; i < 1000; i++) squiggle.add(i % 500, i / 2);
+        history.endEdit();
+        states[2] = saveText(paintModel);
+
+        // Changes outside of an edit are each an edit
+        squiggle.setColor(Color.rgb(1, 2, 3));
+        states[3] = saveText(paintModel);
+        paintModel.removeCommand(circle);
+        states[4] = saveText(paintModel);
+
+        for (int i = 4; i > 0; i--) {
+            assertEquals(states[i], saveText(paintModel));
+            assertTrue(history.undo());
+        }
+        assertEquals(states[0], saveText(paintModel));
+        assertFalse(history.undo());
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(history.redo());
+            assertEquals(states[i], saveText(paintModel));
+        }
+        assertFalse(history.redo());
+
+        // The removed circle is back below the squiggle
+        history.undo();
+        assertSame(circle, paintModel.getCommands().get(0));
+        assertSame(circle, paintModel.getCommandsAt(100, 100).get(0));
+    }
+
+    @Test
+    public void newEditForgetsRedo() {
+        PaintModel paintModel = new PaintModel();
+        UndoHistory history = new UndoHistory(paintModel, UndoHistory.DEFAULT_BYTE_BUDGET);
+        paintModel.addCommand(new CircleCommand(new Point(1, 1), 1));
+        history.undo();
+        assertTrue(history.canRedo());
+        paintModel.addCommand(new CircleCommand(new Point(2, 2), 2));
+        assertFalse(history.canRedo());
+        assertEquals(1, paintModel.getCommands().size());
+    }
+
+    @Test
+    public void undoOnlyTouchesTheAddedPoints() {
+        PaintModel paintModel = new PaintModel();
+        UndoHistory history = new UndoHistory(paintModel, UndoHistory.DEFAULT_BYTE_BUDGET);
+        SquiggleCommand squiggle = new SquiggleCommand();
+        for (int i = 0; i < 200000; i++) squiggle.add(i % 500, i % 499);
+        paintModel.addCommand(squiggle);
+        history.clear();
+
+        history.beginEdit();
+        squiggle.add(-10, 600);
+        squiggle.add(-20, 700);
+        history.endEdit();
+        assertTrue(history.getSize() < 1000, "Holds the 2 points added, not the squiggle: " + history.getSize());
+
+        history.undo();
+        assertEquals(200000, squiggle.getPoints().size());
+        assertEquals(0, squiggle.getPoints().getMinX());
+        assertEquals(498, squiggle.getPoints().getMaxY());
+        history.redo();
+        assertEquals(200002, squiggle.getPoints().size());
+        assertEquals(-20, squiggle.getPoints().getMinX());
+    }
+
+    @Test
+    public void oldestEditsAreForgottenOverBudget() {
+        PaintModel paintModel = new PaintModel();
+        UndoHistory history = new UndoHistory(paintModel, 100 * UndoHistory.EDIT_SIZE);
+        for (int i = 0; i < 1000; i++) {
+            paintModel.addCommand(new RectangleCommand(new Point(i, i), new Point(i + 5, i + 5)));
+        }
+        assertTrue(history.getSize() <= history.getByteBudget());
+        int undone = 0;
+        while (history.undo()) undone++;
+        assertTrue(undone > 10 && undone < 100, undone + " edits kept");
+        assertEquals(1000 - undone, paintModel.getCommands().size());
+    }
+}